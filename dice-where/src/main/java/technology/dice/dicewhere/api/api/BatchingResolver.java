@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.api.api;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nonnull;
+import technology.dice.dicewhere.provider.ProviderKey;
+import technology.dice.dicewhere.utils.IPParser;
+
+/**
+ * Asynchronous front end of an {@link IPResolver} that coalesces concurrent lookups into batches.
+ * Rather than a task per lookup, a single dispatching thread collects the pending lookups, up to a
+ * maximum batch size or until the first of them has waited for the maximum delay, and resolves
+ * each batch with one sorted pass per provider, as {@link IPResolver#resolveAll(Collection,
+ * ProviderKey)} does. Under load batches fill up while the previous one is being resolved, so the
+ * cost per lookup drops as concurrency grows.
+ *
+ * <p>The futures of a batch are completed together on the dispatching thread, which also runs
+ * their non async dependent stages. Those should be kept short, or use the async variants. A
+ * failure resolving a batch, errors included, fails the lookups it affects and the thread carries
+ * on with the next batch.
+ */
+public class BatchingResolver implements AutoCloseable {
+  /** Wakes the dispatching thread up on close, rather than interrupting it in a database read */
+  private static final Lookup CLOSED = new Lookup(null, null, null, null);
+  private final IPResolver resolver;
+  private final int maxBatchSize;
+  private final long maxDelayNanos;
+  private final BlockingQueue<Lookup> pending = new LinkedBlockingQueue<>();
+  private final LongAdder batches = new LongAdder();
+  private volatile boolean closed;
+
+  /**
+   * @param resolver the resolver to resolve the batches with
+   * @param maxBatchSize the maximum number of lookups per batch
+   * @param maxDelay how long the first lookup of a batch may wait for others to join it, 0 to only
+   *     batch the lookups already pending
+   * @param unit the unit of the maximum delay
+   */
+  public BatchingResolver(
+      @Nonnull IPResolver resolver, int maxBatchSize, long maxDelay, @Nonnull TimeUnit unit) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("The maximum batch size must be positive");
+    }
+    if (maxDelay < 0) {
+      throw new IllegalArgumentException("The maximum delay can't be negative");
+    }
+    this.resolver = Objects.requireNonNull(resolver);
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayNanos = unit.toNanos(maxDelay);
+    new ThreadFactoryBuilder()
+        .setNameFormat("batching-resolver-%d")
+        .setDaemon(true)
+        .build()
+        .newThread(this::dispatch)
+        .start();
+  }
+
+  public CompletionStage<Optional<IpInformation>> resolveAsync(
+      @Nonnull IP ip, @Nonnull ProviderKey provider) {
+    CompletableFuture<Optional<IpInformation>> result = new CompletableFuture<>();
+    submit(new Lookup(Objects.requireNonNull(ip), Objects.requireNonNull(provider), result, null));
+    return result;
+  }
+
+  public CompletionStage<Optional<IpInformation>> resolveAsync(
+      @Nonnull String ip, @Nonnull ProviderKey provider) throws UnknownHostException {
+    return resolveAsync(IPParser.parse(Objects.requireNonNull(ip)), provider);
+  }
+
+  /**
+   * @param ip the IP to resolve
+   * @return the resolution of the IP against every provider that is ready
+   */
+  public CompletionStage<Map<ProviderKey, Optional<IpInformation>>> resolveAsync(@Nonnull IP ip) {
+    CompletableFuture<Map<ProviderKey, Optional<IpInformation>>> result =
+        new CompletableFuture<>();
+    submit(new Lookup(Objects.requireNonNull(ip), null, null, result));
+    return result;
+  }
+
+  public CompletionStage<Map<ProviderKey, Optional<IpInformation>>> resolveAsync(
+      @Nonnull String ip) throws UnknownHostException {
+    return resolveAsync(IPParser.parse(Objects.requireNonNull(ip)));
+  }
+
+  /** @return how many batches have been resolved so far */
+  public long batches() {
+    return batches.sum();
+  }
+
+  private void submit(Lookup lookup) {
+    pending.add(lookup);
+    if (closed) {
+      failPending();
+    }
+  }
+
+  private void dispatch() {
+    List<Lookup> batch = new ArrayList<>(maxBatchSize);
+    try {
+      while (!closed) {
+        batch.add(pending.take());
+        long deadline = System.nanoTime() + maxDelayNanos;
+        pending.drainTo(batch, maxBatchSize - batch.size());
+        while (batch.size() < maxBatchSize && !closed) {
+          Lookup next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+          pending.drainTo(batch, maxBatchSize - batch.size());
+        }
+        try {
+          resolve(batch);
+        } catch (Throwable e) {
+          batch.forEach(lookup -> lookup.fail(e));
+        }
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      closed = true;
+      batch.forEach(Lookup::fail);
+      failPending();
+    }
+  }
+
+  /** Resolves each provider's lookups with one pass, then the lookups against all the providers */
+  private void resolve(List<Lookup> batch) {
+    batches.increment();
+    Map<ProviderKey, List<Lookup>> byProvider = new HashMap<>();
+    List<Lookup> allProviders = new ArrayList<>();
+    for (Lookup lookup : batch) {
+      if (lookup == CLOSED) {
+        continue;
+      }
+      if (lookup.provider == null) {
+        allProviders.add(lookup);
+      } else {
+        byProvider.computeIfAbsent(lookup.provider, provider -> new ArrayList<>()).add(lookup);
+      }
+    }
+    for (Map.Entry<ProviderKey, List<Lookup>> entry : byProvider.entrySet()) {
+      List<Lookup> lookups = entry.getValue();
+      try {
+        List<Optional<IpInformation>> results = resolver.resolveAll(ips(lookups), entry.getKey());
+        for (int i = 0; i < lookups.size(); i++) {
+          lookups.get(i).single.complete(results.get(i));
+        }
+      } catch (Throwable e) {
+        lookups.forEach(lookup -> lookup.fail(e));
+      }
+    }
+    if (!allProviders.isEmpty()) {
+      try {
+        Map<ProviderKey, List<Optional<IpInformation>>> results =
+            resolver.resolveAll(ips(allProviders));
+        for (int i = 0; i < allProviders.size(); i++) {
+          Map<ProviderKey, Optional<IpInformation>> resolution = new HashMap<>(results.size());
+          for (Map.Entry<ProviderKey, List<Optional<IpInformation>>> entry : results.entrySet()) {
+            resolution.put(entry.getKey(), entry.getValue().get(i));
+          }
+          allProviders.get(i).all.complete(resolution);
+        }
+      } catch (Throwable e) {
+        allProviders.forEach(lookup -> lookup.fail(e));
+      }
+    }
+  }
+
+  private static List<IP> ips(List<Lookup> lookups) {
+    List<IP> ips = new ArrayList<>(lookups.size());
+    for (Lookup lookup : lookups) {
+      ips.add(lookup.ip);
+    }
+    return ips;
+  }
+
+  private void failPending() {
+    Lookup lookup;
+    while ((lookup = pending.poll()) != null) {
+      lookup.fail();
+    }
+  }
+
+  /**
+   * Stops the dispatching thread once it has resolved the batch it is collecting. Pending lookups,
+   * and any submitted afterwards, fail with an {@link IllegalStateException}. The underlying
+   * resolver is left open
+   */
+  @Override
+  public void close() {
+    closed = true;
+    pending.add(CLOSED);
+  }
+
+  private static final class Lookup {
+    private final IP ip;
+    private final ProviderKey provider;
+    private final CompletableFuture<Optional<IpInformation>> single;
+    private final CompletableFuture<Map<ProviderKey, Optional<IpInformation>>> all;
+
+    private Lookup(
+        IP ip,
+        ProviderKey provider,
+        CompletableFuture<Optional<IpInformation>> single,
+        CompletableFuture<Map<ProviderKey, Optional<IpInformation>>> all) {
+      this.ip = ip;
+      this.provider = provider;
+      this.single = single;
+      this.all = all;
+    }
+
+    private void fail() {
+      fail(new IllegalStateException("The batching resolver is closed"));
+    }
+
+    /** Fails the lookup unless it has been completed already */
+    private void fail(Throwable e) {
+      if (this == CLOSED) {
+        return;
+      }
+      if (single != null) {
+        single.completeExceptionally(e);
+      } else {
+        all.completeExceptionally(e);
+      }
+    }
+  }
+}
@@ -6,26 +6,150 @@
 
 package technology.dice.dicewhere.api.api;
 
+import com.google.common.net.InetAddresses;
 import java.io.Serializable;
 import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.Objects;
 import javax.annotation.Nonnull;
 
+/**
+ * An IPV4 or IPV6 address. The address is kept as its length and a pair of unsigned {@code long}s,
+ * so that comparison, hashing, increment and decrement are a handful of primitive operations
+ * regardless of the address family.
+ */
 public class IP implements Comparable<IP>, Serializable {
-  private final byte[] bytes;
-
+  private static final long serialVersionUID = 1L;
+  private static final int MAX_LENGTH = 16;
+  private final int length;
+  private final long high;
+  private final long low;
+  // derived on first use, and safe to race on as InetAddress is immutable
+  private transient InetAddress inetAddress;
+
+  /**
+   * @param bytes the address, most significant byte first
+   * @throws IllegalArgumentException if the address is longer than 16 bytes
+   */
   public IP(@Nonnull byte[] bytes) {
     Objects.requireNonNull(bytes);
-    this.bytes = bytes;
+    if (bytes.length > MAX_LENGTH) {
+      throw new IllegalArgumentException("IP addresses can't be longer than 16 bytes");
+    }
+    this.length = bytes.length;
+    int split = Math.max(0, bytes.length - Long.BYTES);
+    this.high = toLong(bytes, 0, split);
+    this.low = toLong(bytes, split, bytes.length);
+  }
+
+  private IP(int length, long high, long low) {
+    this.length = length;
+    this.high = high;
+    this.low = low;
   }
 
   public IP(@Nonnull InetAddress ip) {
     this(Objects.requireNonNull(ip).getAddress());
   }
 
+  /**
+   * @param address the address as an unsigned int
+   * @return the IPV4 address
+   */
+  public static IP fromIpV4(int address) {
+    return new IP(4, 0, Integer.toUnsignedLong(address));
+  }
+
+  /**
+   * @param high the most significant half of the address
+   * @param low the least significant half of the address
+   * @return the IPV6 address
+   */
+  public static IP fromIpV6(long high, long low) {
+    return new IP(MAX_LENGTH, high, low);
+  }
+
+  /** @return a copy of the address, most significant byte first */
   public byte[] getBytes() {
-    return bytes;
+    return toBytes(high, low, length);
+  }
+
+  /**
+   * @return the address as an {@link InetAddress}, built once per IP and shared by later calls
+   * @throws IllegalStateException if the address is neither 4 nor 16 bytes long
+   */
+  public InetAddress toInetAddress() {
+    InetAddress address = inetAddress;
+    if (address == null) {
+      try {
+        address = InetAddress.getByAddress(getBytes());
+      } catch (UnknownHostException e) {
+        throw new IllegalStateException("Not an IPV4 or IPV6 address: " + this, e);
+      }
+      inetAddress = address;
+    }
+    return address;
+  }
+
+  /** @return the number of bytes of the address: 4 for IPV4, 16 for IPV6 */
+  public int getLength() {
+    return length;
+  }
+
+  /** @return the bytes of the address beyond the last 8 as an unsigned long. 0 for IPV4 */
+  public long getHigh() {
+    return high;
+  }
+
+  /** @return the last 8 bytes of the address, or the whole IPV4 address, as an unsigned long */
+  public long getLow() {
+    return low;
+  }
+
+  /**
+   * @return the address following this one
+   * @throws ArithmeticException if this is the last address of its family
+   */
+  public IP next() {
+    return increment(1);
+  }
+
+  /**
+   * @return the address preceding this one
+   * @throws ArithmeticException if this is the first address of its family
+   */
+  public IP previous() {
+    return increment(-1);
+  }
+
+  /**
+   * @param delta how many addresses to move forward by. Negative values move backwards
+   * @return the address {@code delta} addresses away from this one, of the same family
+   * @throws ArithmeticException if the result falls outside the addresses of this family
+   */
+  public IP increment(long delta) {
+    long newLow = low + delta;
+    long newHigh = high;
+    boolean outOfRange;
+    if (length < Long.BYTES) {
+      outOfRange = Long.compareUnsigned(newLow, mask(length)) > 0;
+    } else if (length == Long.BYTES) {
+      int direction = Long.compareUnsigned(newLow, low);
+      outOfRange = delta >= 0 ? direction < 0 : direction > 0;
+    } else {
+      newHigh = high + (delta >> 63) + (Long.compareUnsigned(newLow, low) < 0 ? 1 : 0);
+      if (length < MAX_LENGTH) {
+        outOfRange = Long.compareUnsigned(newHigh, mask(length - Long.BYTES)) > 0;
+      } else {
+        int direction = compare(newHigh, newLow, high, low);
+        outOfRange = delta >= 0 ? direction < 0 : direction > 0;
+      }
+    }
+    if (outOfRange) {
+      throw new ArithmeticException("IP address out of range");
+    }
+    return new IP(length, newHigh, newLow);
   }
 
   public boolean isLowerThan(IP other) {
@@ -49,36 +173,54 @@ public class IP implements Comparable<IP>, Serializable {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     IP ip = (IP) o;
-    return ip.compareTo(this) == 0;
+    return length == ip.length && high == ip.high && low == ip.low;
   }
 
   @Override
   public int hashCode() {
-    return Arrays.hashCode(bytes);
+    return 31 * (31 * length + Long.hashCode(high)) + Long.hashCode(low);
   }
 
   @Override
   public int compareTo(@Nonnull IP other) {
     Objects.requireNonNull(other);
-    byte[] myBytes = getBytes();
-    byte[] theirBytes = other.getBytes();
-
     // ipv4 before ipv6
-    if (myBytes.length < theirBytes.length) return -1;
-    if (myBytes.length > theirBytes.length) return 1;
-
-    // compare each byte, most significant first
-    for (int i = 0; i < myBytes.length; i++) {
-      int myByteAsInt = unsignedByteToInt(myBytes[i]);
-      int theirByteAsInt = unsignedByteToInt(theirBytes[i]);
-      if (myByteAsInt == theirByteAsInt) continue;
-      if (myByteAsInt < theirByteAsInt) return -1;
-      else return 1;
+    if (length != other.length) {
+      return length < other.length ? -1 : 1;
+    }
+    return compare(high, low, other.high, other.low);
+  }
+
+  @Override
+  public String toString() {
+    if (length == 4 || length == MAX_LENGTH) {
+      return InetAddresses.toAddrString(toInetAddress());
+    }
+    return Arrays.toString(getBytes());
+  }
+
+  private static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+    int high = Long.compareUnsigned(aHigh, bHigh);
+    return high != 0 ? high : Long.compareUnsigned(aLow, bLow);
+  }
+
+  private static long mask(int bytes) {
+    return (1L << (bytes * Byte.SIZE)) - 1;
+  }
+
+  private static long toLong(byte[] bytes, int from, int to) {
+    long value = 0;
+    for (int i = from; i < to; i++) {
+      value = (value << Byte.SIZE) | (bytes[i] & 0xFF);
     }
-    return 0;
+    return value;
   }
 
-  private int unsignedByteToInt(byte b) {
-    return (int) b & 0xFF;
+  private static byte[] toBytes(long high, long low, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = length - 1, shift = 0; i >= 0; i--, shift += Byte.SIZE) {
+      bytes[i] = (byte) (i >= length - Long.BYTES ? low >>> shift : high >>> (shift - Long.SIZE));
+    }
+    return bytes;
   }
 }
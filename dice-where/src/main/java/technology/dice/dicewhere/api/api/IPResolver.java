@@ -6,61 +6,378 @@
 
 package technology.dice.dicewhere.api.api;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import java.net.InetAddress;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.Cleaner;
 import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import technology.dice.dicewhere.api.exceptions.DuplicateProviderException;
 import technology.dice.dicewhere.api.exceptions.NoProvidersException;
 import technology.dice.dicewhere.api.exceptions.ProviderNotAvailableException;
+import technology.dice.dicewhere.api.exceptions.ProviderNotReadyException;
+import technology.dice.dicewhere.building.CachedIpDatabase;
 import technology.dice.dicewhere.building.DatabaseBuilderListener;
 import technology.dice.dicewhere.building.IPDatabase;
+import technology.dice.dicewhere.building.PrefixCachedIpDatabase;
+import technology.dice.dicewhere.building.sortedarray.FusedRangeIndex;
 import technology.dice.dicewhere.lineprocessing.LineProcessorListener;
 import technology.dice.dicewhere.provider.ProviderKey;
 import technology.dice.dicewhere.reading.LineReaderListener;
 import technology.dice.dicewhere.reading.SourceReader;
+import technology.dice.dicewhere.utils.IPParser;
+import technology.dice.dicewhere.utils.IPUtils;
 
-public class IPResolver {
+public class IPResolver implements AutoCloseable {
   private static final int DEFAULT_LINE_PROCESSOR_WORKERS_COUNT = 4;
-  private final Map<ProviderKey, IPDatabase> databases;
+  private static final Cleaner RETIRED_DATABASES = Cleaner.create();
+  private final boolean retainOriginalLine;
+  private final boolean fuseProviders;
+  private final long lookupCacheSize;
+  private final long prefixCacheSize;
+  private final int ipV4PrefixLength;
+  private final int ipV6PrefixLength;
+  private final int workersCount;
+  private final LineReaderListener readerListener;
+  private final LineProcessorListener processorListener;
+  private final DatabaseBuilderListener builderListener;
+  private final ReloadListener reloadListener;
+  private final LongAdder reroutedLookups;
+  private final Map<ProviderKey, CompletableFuture<Void>> readiness;
+  private final Object reloadLock = new Object();
+  private final Deque<Generation> retired = new ArrayDeque<>();
+  private volatile Generation generation;
+  private boolean closed;
 
-  private IPResolver(Map<ProviderKey, IPDatabase> databases) {
-    this.databases = databases;
+  private IPResolver(Builder builder) {
+    this.retainOriginalLine = builder.retainOriginalLine;
+    this.fuseProviders = builder.fuseProviders;
+    this.lookupCacheSize = builder.lookupCacheSize;
+    this.prefixCacheSize = builder.prefixCacheSize;
+    this.ipV4PrefixLength = builder.ipV4PrefixLength;
+    this.ipV6PrefixLength = builder.ipV6PrefixLength;
+    this.workersCount = builder.workersCount;
+    this.readerListener = builder.readerListener;
+    this.processorListener = builder.processorListener;
+    this.builderListener = builder.builderListener;
+    this.reloadListener = builder.reloadListener;
+    this.reroutedLookups = builder.normaliseEmbeddedIpV4 ? new LongAdder() : null;
+    this.readiness =
+        builder.providers.keySet().stream()
+            .collect(
+                ImmutableMap.toImmutableMap(
+                    provider -> provider, provider -> new CompletableFuture<>()));
+    this.generation =
+        new Generation(
+            ImmutableMap.of(), ImmutableMap.of(), null, ImmutableSet.copyOf(readiness.keySet()));
+  }
+
+  private void load(Collection<SourceReader> readers, int concurrency) {
+    Map<ProviderKey, IPDatabase> built = readAll(readers, concurrency);
+    FusedRangeIndex fusedIndex;
+    try {
+      fusedIndex = fuseProviders ? FusedRangeIndex.of(built) : null;
+    } catch (RuntimeException e) {
+      built.values().forEach(IPDatabase::close);
+      throw e;
+    }
+    Map<ProviderKey, IPDatabase> databases = new HashMap<>(built.size());
+    built.forEach((provider, database) -> databases.put(provider, cached(database)));
+    generation = new Generation(built, databases, fusedIndex, ImmutableSet.of());
+    readiness.values().forEach(ready -> ready.complete(null));
+  }
+
+  /**
+   * Reads the providers in the background, up to the given number at a time, swapping each one in
+   * as soon as it is built. A provider that fails to build is no longer loading, and resolving
+   * against it fails as if the resolver had been built without it
+   */
+  private void loadAsync(Collection<SourceReader> readers, int concurrency) {
+    ExecutorService executorService =
+        Executors.newFixedThreadPool(
+            Math.min(concurrency, readers.size()),
+            new ThreadFactoryBuilder().setNameFormat("provider-builder-%d").build());
+    for (SourceReader reader : readers) {
+      ProviderKey provider = reader.provider();
+      CompletableFuture.supplyAsync(() -> read(reader), executorService)
+          .thenAccept(database -> swap(provider, database))
+          .whenComplete(
+              (swapped, e) -> {
+                if (e == null) {
+                  readiness.get(provider).complete(null);
+                } else {
+                  abandon(provider);
+                  readiness
+                      .get(provider)
+                      .completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                }
+              });
+    }
+    executorService.shutdown();
+  }
+
+  private IPDatabase read(SourceReader reader) {
+    return reader.read(
+        retainOriginalLine, readerListener, processorListener, builderListener, workersCount);
+  }
+
+  /**
+   * Reads the providers, up to the given number at a time. Fails as soon as one of them does,
+   * interrupting the builds still running and closing the databases already built
+   */
+  private Map<ProviderKey, IPDatabase> readAll(Collection<SourceReader> readers, int concurrency) {
+    Map<ProviderKey, IPDatabase> built = new HashMap<>(readers.size());
+    if (concurrency == 1 || readers.size() == 1) {
+      for (SourceReader reader : readers) {
+        built.put(reader.provider(), read(reader));
+      }
+      return built;
+    }
+    ExecutorService executorService =
+        Executors.newFixedThreadPool(
+            Math.min(concurrency, readers.size()),
+            new ThreadFactoryBuilder().setNameFormat("provider-builder-%d").build());
+    CompletionService<IPDatabase> builds = new ExecutorCompletionService<>(executorService);
+    Map<Future<IPDatabase>, ProviderKey> providers = new HashMap<>(readers.size());
+    try {
+      for (SourceReader reader : readers) {
+        providers.put(builds.submit(() -> read(reader)), reader.provider());
+      }
+      for (int i = 0; i < readers.size(); i++) {
+        Future<IPDatabase> build = builds.take();
+        built.put(providers.get(build), build.get());
+      }
+      return built;
+    } catch (InterruptedException | ExecutionException e) {
+      built.values().forEach(IPDatabase::close);
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while building the providers", e);
+      }
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException("Building a provider failed", e.getCause());
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private IPDatabase cached(IPDatabase database) {
+    if (prefixCacheSize > 0) {
+      database =
+          new PrefixCachedIpDatabase(database, prefixCacheSize, ipV4PrefixLength, ipV6PrefixLength);
+    }
+    if (lookupCacheSize > 0) {
+      database = new CachedIpDatabase(database, lookupCacheSize);
+    }
+    return database;
+  }
+
+  /**
+   * Runs a read against the current databases, keeping them from being closed until it is done
+   *
+   * @see #reload(SourceReader)
+   */
+  private <T> T withGeneration(Function<Generation, T> read) {
+    Generation current = acquire();
+    try {
+      return read.apply(current);
+    } finally {
+      release(current);
+    }
+  }
+
+  /** @return the current generation, counted as being read until it is released */
+  private Generation acquire() {
+    Generation current = generation;
+    while (true) {
+      current.readers.incrementAndGet();
+      Generation latest = generation;
+      if (latest == current) {
+        return current;
+      }
+      // retired in the meantime, so its databases may be closed already
+      release(current);
+      current = latest;
+    }
+  }
+
+  private void release(Generation read) {
+    if (read.readers.decrementAndGet() == 0 && read.retired) {
+      synchronized (retired) {
+        closeDrained();
+      }
+    }
+  }
+
+  /**
+   * Retires a generation that has just been replaced. The database it replaced, if any, is closed
+   * as soon as no read is in flight against the generation or any generation before it. A cleaner
+   * closes the database too, should the generation become unreachable first
+   */
+  private void retire(Generation previous, IPDatabase replaced) {
+    if (replaced != null) {
+      RetiredDatabase release = new RetiredDatabase(replaced);
+      previous.release = release;
+      RETIRED_DATABASES.register(previous, release);
+    }
+    synchronized (retired) {
+      retired.add(previous);
+      previous.retired = true;
+      closeDrained();
+    }
+  }
+
+  /** Must hold the lock on {@link #retired} */
+  private void closeDrained() {
+    while (!retired.isEmpty() && retired.peek().readers.get() == 0) {
+      retired.poll().release.run();
+    }
   }
 
   public CompletionStage<Optional<IpInformation>> resolveAsync(
       @Nonnull IP ip, @Nonnull ProviderKey provider) {
+    IP normalised = normalise(Objects.requireNonNull(ip));
     return CompletableFuture.supplyAsync(
-        () -> databases.get(Objects.requireNonNull(provider)).get(Objects.requireNonNull(ip)));
+        () -> withGeneration(current -> current.database(provider).get(normalised)));
   }
 
   public CompletionStage<Optional<IpInformation>> resolveAsync(
       @Nonnull IP ip, @Nonnull ProviderKey provider, @Nonnull ExecutorService executorService) {
+    IP normalised = normalise(Objects.requireNonNull(ip));
     return CompletableFuture.supplyAsync(
-        () -> databases.get(Objects.requireNonNull(provider)).get(Objects.requireNonNull(ip)),
+        () -> withGeneration(current -> current.database(provider).get(normalised)),
         Objects.requireNonNull(executorService));
   }
 
   public Optional<IpInformation> resolve(@Nonnull IP ip, @Nonnull ProviderKey provider) {
-    if (!databases.containsKey(Objects.requireNonNull(provider))) {
-      throw new ProviderNotAvailableException(
-          String.format("Provider %s not available", provider.name()), provider);
+    IP normalised = normalise(Objects.requireNonNull(ip));
+    Generation current = acquire();
+    try {
+      return current.database(provider).get(normalised);
+    } finally {
+      release(current);
+    }
+  }
+
+  /**
+   * Resolves only the country of an IP. For databases stored as sorted arrays or mapped from a
+   * snapshot this costs little more than the search itself, as no location is decoded and nothing
+   * is allocated
+   *
+   * @param ip the IP to resolve
+   * @param provider the provider to resolve it against
+   * @return the ISO 3166 alpha 2 code of the country of the IP, or empty if it isn't covered
+   */
+  public Optional<String> resolveCountry(@Nonnull IP ip, @Nonnull ProviderKey provider) {
+    IP normalised = normalise(Objects.requireNonNull(ip));
+    Generation current = acquire();
+    try {
+      return current.database(provider).getCountry(normalised);
+    } finally {
+      release(current);
     }
-    return databases.get(Objects.requireNonNull(provider)).get(Objects.requireNonNull(ip));
+  }
+
+  /**
+   * @param ip the IP to resolve, in textual form
+   * @param provider the provider to resolve it against
+   * @return the ISO 3166 alpha 2 code of the country of the IP, or empty if it isn't covered
+   * @throws UnknownHostException if the IP can't be parsed
+   * @see #resolveCountry(IP, ProviderKey)
+   */
+  public Optional<String> resolveCountry(@Nonnull String ip, @Nonnull ProviderKey provider)
+      throws UnknownHostException {
+    return resolveCountry(
+        IPParser.parse(Objects.requireNonNull(ip)), Objects.requireNonNull(provider));
+  }
+
+  /**
+   * @return the IPV4 address embedded in the IP if embedded addresses are normalised and it has
+   *     one, otherwise the IP itself
+   * @see Builder#normaliseEmbeddedIpV4(boolean)
+   */
+  private IP normalise(IP ip) {
+    if (reroutedLookups == null) {
+      return ip;
+    }
+    Optional<IP> embedded = IPUtils.embeddedIpV4(ip);
+    if (!embedded.isPresent()) {
+      return ip;
+    }
+    reroutedLookups.increment();
+    return embedded.get();
+  }
+
+  private List<IP> normalise(Collection<IP> ips) {
+    if (reroutedLookups == null) {
+      return ImmutableList.copyOf(ips);
+    }
+    return ips.stream().map(this::normalise).collect(ImmutableList.toImmutableList());
+  }
+
+  /**
+   * Resolves a batch of IPs in one pass over the provider's ranges, which is considerably cheaper
+   * than resolving them one by one for large batches
+   *
+   * @param ips the IPs to resolve
+   * @param provider the provider to resolve them against
+   * @return the resolution of each IP, in the iteration order of the input
+   */
+  public List<Optional<IpInformation>> resolveAll(
+      @Nonnull Collection<IP> ips, @Nonnull ProviderKey provider) {
+    List<IP> batch = normalise(Objects.requireNonNull(ips));
+    return withGeneration(current -> current.database(provider).getAll(batch));
+  }
+
+  /**
+   * @param ips the IPs to resolve
+   * @return for each provider, the resolution of each IP in the iteration order of the input
+   * @see #resolveAll(Collection, ProviderKey)
+   */
+  public Map<ProviderKey, List<Optional<IpInformation>>> resolveAll(@Nonnull Collection<IP> ips) {
+    List<IP> batch = normalise(Objects.requireNonNull(ips));
+    return withGeneration(
+        current ->
+            current.databases.entrySet().stream()
+                .collect(
+                    ImmutableMap.toImmutableMap(
+                        Map.Entry::getKey, entry -> entry.getValue().getAll(batch))));
   }
 
   public CompletionStage<Optional<IpInformation>> resolveAsync(
       @Nonnull String ip, @Nonnull ProviderKey provider) throws UnknownHostException {
     return resolveAsync(
-        new IP(InetAddress.getByName(Objects.requireNonNull(ip))),
+        IPParser.parse(Objects.requireNonNull(ip)),
         Objects.requireNonNull(provider));
   }
 
@@ -68,7 +385,7 @@ public class IPResolver {
       @Nonnull String ip, @Nonnull ProviderKey provider, @Nonnull ExecutorService executorService)
       throws UnknownHostException {
     return resolveAsync(
-        new IP(InetAddress.getByName(Objects.requireNonNull(ip))),
+        IPParser.parse(Objects.requireNonNull(ip)),
         Objects.requireNonNull(provider),
         Objects.requireNonNull(executorService));
   }
@@ -76,20 +393,22 @@ public class IPResolver {
   public Optional<IpInformation> resolve(@Nonnull String ip, @Nonnull ProviderKey provider)
       throws UnknownHostException {
     return resolve(
-        new IP(InetAddress.getByName(Objects.requireNonNull(ip))),
+        IPParser.parse(Objects.requireNonNull(ip)),
         Objects.requireNonNull(provider));
   }
 
   public CompletionStage<Map<ProviderKey, Optional<IpInformation>>> resolveAsync(@Nonnull IP ip) {
-
+    IP normalised = normalise(Objects.requireNonNull(ip));
     Map<ProviderKey, CompletableFuture<Optional<IpInformation>>> resolution =
-        databases.entrySet().stream()
+        generation.databases.keySet().stream()
             .collect(
                 ImmutableMap.toImmutableMap(
-                    Map.Entry::getKey,
-                    entry ->
-                        resolveAsync(Objects.requireNonNull(ip), entry.getKey())
-                            .toCompletableFuture()));
+                    provider -> provider,
+                    provider ->
+                        CompletableFuture.supplyAsync(
+                            () ->
+                                withGeneration(
+                                    current -> current.database(provider).get(normalised)))));
 
     return CompletableFuture.allOf(resolution.values().toArray(new CompletableFuture<?>[0]))
         .thenApply(
@@ -102,57 +421,339 @@ public class IPResolver {
 
   public Map<ProviderKey, Optional<IpInformation>> resolve(@Nonnull String ip)
       throws UnknownHostException {
-    return resolve(new IP(InetAddress.getByName(Objects.requireNonNull(ip))));
+    return resolve(IPParser.parse(Objects.requireNonNull(ip)));
   }
 
   public CompletionStage<Map<ProviderKey, Optional<IpInformation>>> resolveAsync(@Nonnull String ip)
       throws UnknownHostException {
-    return resolveAsync(new IP(InetAddress.getByName(Objects.requireNonNull(ip))));
+    return resolveAsync(IPParser.parse(Objects.requireNonNull(ip)));
   }
 
   public Map<ProviderKey, CompletionStage<Optional<IpInformation>>> resolveAsync(
       @Nonnull String ip, @Nonnull ExecutorService executorService) throws UnknownHostException {
     return resolveAsync(
-        new IP(InetAddress.getByName(Objects.requireNonNull(ip))),
+        IPParser.parse(Objects.requireNonNull(ip)),
         Objects.requireNonNull(executorService));
   }
 
   public Map<ProviderKey, CompletionStage<Optional<IpInformation>>> resolveAsync(
       @Nonnull IP ip, @Nonnull ExecutorService executorService) {
+    IP normalised = normalise(Objects.requireNonNull(ip));
+    Objects.requireNonNull(executorService);
     Map<ProviderKey, CompletionStage<Optional<IpInformation>>> resolution =
-        databases.entrySet().stream()
+        generation.databases.keySet().stream()
             .collect(
                 Collectors.toMap(
-                    Map.Entry::getKey,
-                    databaseProviderIPDatabaseEntry ->
-                        resolveAsync(
-                            Objects.requireNonNull(ip),
-                            databaseProviderIPDatabaseEntry.getKey(),
-                            Objects.requireNonNull(executorService))));
+                    provider -> provider,
+                    provider ->
+                        CompletableFuture.supplyAsync(
+                            () ->
+                                withGeneration(
+                                    current -> current.database(provider).get(normalised)),
+                            executorService)));
 
     return resolution;
   }
 
   public Map<ProviderKey, Optional<IpInformation>> resolve(@Nonnull IP ip) {
-    Map<ProviderKey, Optional<IpInformation>> resolution =
-        databases.entrySet().stream()
-            .collect(
-                Collectors.toMap(
-                    Map.Entry::getKey,
-                    databaseProviderIPDatabaseEntry ->
-                        resolve(
-                            Objects.requireNonNull(ip), databaseProviderIPDatabaseEntry.getKey())));
+    IP normalised = normalise(Objects.requireNonNull(ip));
+    Generation current = acquire();
+    try {
+      if (current.fusedIndex != null) {
+        return current.fusedIndex.resolve(normalised);
+      }
+      Map<ProviderKey, Optional<IpInformation>> resolution =
+          current.databases.entrySet().stream()
+              .collect(
+                  Collectors.toMap(
+                      Map.Entry::getKey,
+                      databaseProviderIPDatabaseEntry ->
+                          databaseProviderIPDatabaseEntry.getValue().get(normalised)));
 
-    return resolution;
+      return resolution;
+    } finally {
+      release(current);
+    }
+  }
+
+  /**
+   * Rebuilds the database of a provider, typically from a new release of its files, and swaps it
+   * in. Resolutions carry on against the previous database while the new one is built, never block
+   * on the swap, and each sees either the previous database or the new one. Caches of the provider
+   * start empty, and a fused index is rebuilt before the swap.
+   *
+   * <p>The previous database is closed, which deletes its file when stored in {@link
+   * technology.dice.dicewhere.building.navigablemap.MapDbDatabaseBuilder.StorageMode#FILE} mode,
+   * as soon as the resolutions in flight when it was swapped out are done
+   *
+   * @param reader the reader of the new release of the provider
+   * @throws ProviderNotAvailableException if the resolver wasn't built with the provider
+   * @see Builder#withReloadListener(ReloadListener)
+   */
+  public void reload(@Nonnull SourceReader reader) {
+    ProviderKey provider = Objects.requireNonNull(reader).provider();
+    generation.database(provider);
+    if (fuseProviders) {
+      checkFusable(reader);
+    }
+    List<MemoryPoolMXBean> heap = heapPools();
+    heap.forEach(MemoryPoolMXBean::resetPeakUsage);
+    long start = System.nanoTime();
+    long buildMillis;
+    long peakHeapBytes;
+    try {
+      IPDatabase database = read(reader);
+      buildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      peakHeapBytes = peakUsage(heap);
+      swap(provider, database);
+    } catch (RuntimeException e) {
+      reloadListener.reloadFailed(provider, e);
+      throw e;
+    }
+    reloadListener.reloaded(provider, buildMillis, peakHeapBytes);
+  }
+
+  /**
+   * @param reader the reader of the new release of the provider
+   * @param executorService the executor to build the new database on
+   * @return a stage completed once the new database has been swapped in
+   * @see #reload(SourceReader)
+   */
+  public CompletionStage<Void> reloadAsync(
+      @Nonnull SourceReader reader, @Nonnull ExecutorService executorService) {
+    Objects.requireNonNull(reader);
+    return CompletableFuture.runAsync(
+        () -> reload(reader), Objects.requireNonNull(executorService));
+  }
+
+  private void swap(ProviderKey provider, IPDatabase database) {
+    synchronized (reloadLock) {
+      Generation previous = generation;
+      if (closed) {
+        if (database != previous.built.get(provider)) {
+          database.close();
+        }
+        return;
+      }
+      Map<ProviderKey, IPDatabase> built = new HashMap<>(previous.built);
+      built.put(provider, database);
+      FusedRangeIndex fusedIndex;
+      try {
+        fusedIndex = fuseProviders ? FusedRangeIndex.of(built) : null;
+      } catch (RuntimeException e) {
+        if (database != previous.built.get(provider)) {
+          database.close();
+        }
+        throw e;
+      }
+      Map<ProviderKey, IPDatabase> databases = new HashMap<>(previous.databases);
+      databases.put(provider, cached(database));
+      generation = new Generation(built, databases, fusedIndex, previous.loadingWithout(provider));
+      IPDatabase replaced = previous.databases.get(provider);
+      retire(previous, database != previous.built.get(provider) ? replaced : null);
+    }
+  }
+
+  private static void checkFusable(SourceReader reader) {
+    if (!reader.fusable()) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Provider %s must be stored as sorted arrays to be fused",
+              reader.provider().name()));
+    }
+  }
+
+  private void abandon(ProviderKey provider) {
+    synchronized (reloadLock) {
+      Generation previous = generation;
+      generation =
+          new Generation(
+              previous.built,
+              previous.databases,
+              previous.fusedIndex,
+              previous.loadingWithout(provider));
+      retire(previous, null);
+    }
+  }
+
+  /**
+   * @param provider the provider to check
+   * @return whether the database of the provider has been built and can be resolved against
+   * @see Builder#buildAsync()
+   */
+  public boolean isReady(@Nonnull ProviderKey provider) {
+    return generation.databases.containsKey(Objects.requireNonNull(provider));
+  }
+
+  /**
+   * @param provider the provider to wait for
+   * @return a future completed once the database of the provider can be resolved against, or
+   *     completed exceptionally with the reason it failed to build
+   * @throws ProviderNotAvailableException if the resolver wasn't built with the provider
+   * @see Builder#buildAsync()
+   */
+  public CompletableFuture<Void> whenReady(@Nonnull ProviderKey provider) {
+    CompletableFuture<Void> ready = readiness.get(Objects.requireNonNull(provider));
+    if (ready == null) {
+      throw new ProviderNotAvailableException(
+          String.format("Provider %s not available", provider.name()), provider);
+    }
+    return ready.copy();
+  }
+
+  private static List<MemoryPoolMXBean> heapPools() {
+    return ManagementFactory.getMemoryPoolMXBeans().stream()
+        .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isValid())
+        .collect(Collectors.toList());
+  }
+
+  /** @return the sum of the peak usage of the pools since their peaks were reset */
+  private static long peakUsage(List<MemoryPoolMXBean> pools) {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : pools) {
+      MemoryUsage usage = pool.getPeakUsage();
+      if (usage != null) {
+        peak += usage.getUsed();
+      }
+    }
+    return peak;
+  }
+
+  /**
+   * Closes the database of every provider, releasing their files and off heap memory. No
+   * resolution may be in flight or follow
+   */
+  @Override
+  public void close() {
+    synchronized (reloadLock) {
+      closed = true;
+      generation.databases.values().forEach(IPDatabase::close);
+    }
+    synchronized (retired) {
+      retired.forEach(previous -> previous.release.run());
+      retired.clear();
+    }
+  }
+
+  /**
+   * @return how many IPs were resolved through the IPV4 address embedded in them, or 0 if embedded
+   *     addresses aren't normalised
+   * @see Builder#normaliseEmbeddedIpV4(boolean)
+   */
+  public long reroutedLookups() {
+    return reroutedLookups == null ? 0 : reroutedLookups.sum();
+  }
+
+  /**
+   * @return the statistics of the lookup cache of each provider, or an empty map if lookups
+   *     aren't cached
+   * @see Builder#withLookupCache(long)
+   */
+  public Map<ProviderKey, LookupCacheStats> lookupCacheStats() {
+    return generation.databases.entrySet().stream()
+        .filter(entry -> entry.getValue() instanceof CachedIpDatabase)
+        .collect(
+            ImmutableMap.toImmutableMap(
+                Map.Entry::getKey, entry -> ((CachedIpDatabase) entry.getValue()).stats()));
+  }
+
+  /**
+   * @return the statistics of the prefix cache of each provider, or an empty map if lookups
+   *     aren't cached by prefix
+   * @see Builder#withPrefixCache(long, int, int)
+   */
+  public Map<ProviderKey, LookupCacheStats> prefixCacheStats() {
+    ImmutableMap.Builder<ProviderKey, LookupCacheStats> stats = ImmutableMap.builder();
+    for (Map.Entry<ProviderKey, IPDatabase> entry : generation.databases.entrySet()) {
+      IPDatabase database = entry.getValue();
+      if (database instanceof CachedIpDatabase) {
+        database = ((CachedIpDatabase) database).getDatabase();
+      }
+      if (database instanceof PrefixCachedIpDatabase) {
+        stats.put(entry.getKey(), ((PrefixCachedIpDatabase) database).stats());
+      }
+    }
+    return stats.build();
+  }
+
+  /**
+   * The databases of every provider at one point in time. A reload replaces the whole generation,
+   * so a resolution against several providers never sees some of them before the reload and some
+   * after. Each generation counts the reads in flight against it, so that the database a reload
+   * replaced can be closed once the reads that may still use it are done
+   */
+  private static final class Generation {
+    private final Map<ProviderKey, IPDatabase> built;
+    private final Map<ProviderKey, IPDatabase> databases;
+    private final FusedRangeIndex fusedIndex;
+    private final Set<ProviderKey> loading;
+    private final AtomicInteger readers = new AtomicInteger();
+    private volatile boolean retired;
+    private Runnable release = () -> {};
+
+    private Generation(
+        Map<ProviderKey, IPDatabase> built,
+        Map<ProviderKey, IPDatabase> databases,
+        FusedRangeIndex fusedIndex,
+        Set<ProviderKey> loading) {
+      this.built = built;
+      this.databases = databases;
+      this.fusedIndex = fusedIndex;
+      this.loading = loading;
+    }
+
+    private Set<ProviderKey> loadingWithout(ProviderKey provider) {
+      return loading.stream()
+          .filter(key -> !key.equals(provider))
+          .collect(ImmutableSet.toImmutableSet());
+    }
+
+    private IPDatabase database(ProviderKey provider) {
+      IPDatabase database = databases.get(Objects.requireNonNull(provider));
+      if (database == null) {
+        if (loading.contains(provider)) {
+          throw new ProviderNotReadyException(
+              String.format("Provider %s is still loading", provider.name()), provider);
+        }
+        throw new ProviderNotAvailableException(
+            String.format("Provider %s not available", provider.name()), provider);
+      }
+      return database;
+    }
+  }
+
+  /** Closes a retired database once, whether its generation drained or was garbage collected */
+  private static final class RetiredDatabase implements Runnable {
+    private final IPDatabase database;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private RetiredDatabase(IPDatabase database) {
+      this.database = database;
+    }
+
+    @Override
+    public void run() {
+      if (closed.compareAndSet(false, true)) {
+        database.close();
+      }
+    }
   }
 
   public static class Builder {
     private final Map<ProviderKey, SourceReader> providers;
     private boolean retainOriginalLine = false;
+    private boolean fuseProviders = false;
+    private boolean normaliseEmbeddedIpV4 = false;
+    private long lookupCacheSize = 0;
+    private long prefixCacheSize = 0;
+    private int ipV4PrefixLength;
+    private int ipV6PrefixLength;
     private int workersCount = DEFAULT_LINE_PROCESSOR_WORKERS_COUNT;
     private LineReaderListener readerListener = new LineReaderListener() {};
     private LineProcessorListener processorListener = new LineProcessorListener() {};
     private DatabaseBuilderListener builderListener = new DatabaseBuilderListener() {};
+    private ReloadListener reloadListener = new ReloadListener() {};
+    private int buildConcurrency = 1;
 
     public Builder() {
       providers = new HashMap<>();
@@ -163,6 +764,24 @@ public class IPResolver {
       return this;
     }
 
+    /**
+     * Builds up to the given number of providers at a time, so that building several providers
+     * takes about as long as building the slowest one. Each build runs its own line processor
+     * workers and holds its own parsing buffers next to the database being built, so this also
+     * bounds the threads and the memory used while building. If a provider fails, the builds still
+     * running are interrupted and {@link #build()} throws straight away
+     *
+     * @param maxConcurrentBuilds the maximum number of providers to build at a time, 1 by default
+     * @return this builder
+     */
+    public Builder withBuildConcurrency(int maxConcurrentBuilds) {
+      if (maxConcurrentBuilds < 1) {
+        throw new IllegalArgumentException("At least one provider must be built at a time");
+      }
+      this.buildConcurrency = maxConcurrentBuilds;
+      return this;
+    }
+
     public Builder withProvider(@Nonnull SourceReader lineReader) {
       if (providers.containsKey(Objects.requireNonNull(lineReader).provider())) {
         throw new DuplicateProviderException(
@@ -177,6 +796,83 @@ public class IPResolver {
       return this;
     }
 
+    /**
+     * Merges the ranges of every provider into a single index, so that resolving an IP against
+     * all the providers costs a single search. Every provider must be stored in {@link
+     * technology.dice.dicewhere.building.navigablemap.MapDbDatabaseBuilder.StorageMode#SORTED_ARRAY}
+     * mode or mapped from a snapshot. Building, or reloading, fails before reading anything when a
+     * provider is known not to be, see {@link SourceReader#fusable()}
+     *
+     * @param fuse whether to fuse the providers
+     * @return this builder
+     */
+    public Builder fuseProviders(boolean fuse) {
+      fuseProviders = fuse;
+      return this;
+    }
+
+    /**
+     * Resolves IPV6 addresses that embed an IPV4 address, as handed over by dual stack proxies, as
+     * that IPV4 address: IPV4 mapped ({@code ::ffff:a.b.c.d}), IPV4 compatible ({@code ::a.b.c.d})
+     * and 6to4 ({@code 2002:aabb:ccdd::/48}) addresses. Providers rarely cover these in their
+     * IPV6 ranges, and the IPV4 ranges are both more precise and quicker to search
+     *
+     * @param normalise whether to resolve embedded IPV4 addresses instead of the IPV6 ones
+     * @return this builder
+     * @see #reroutedLookups()
+     */
+    public Builder normaliseEmbeddedIpV4(boolean normalise) {
+      normaliseEmbeddedIpV4 = normalise;
+      return this;
+    }
+
+    /**
+     * Caches the lookups of each provider, keeping up to the given number of IPs per provider.
+     * Worth enabling when a small set of IPs makes up most of the traffic. Resolutions against
+     * all the providers of a fused index don't go through the cache, as they are already served
+     * by a single search
+     *
+     * @param maximumSize the maximum number of IPs to cache per provider, or 0 not to cache
+     * @return this builder
+     * @see #lookupCacheStats()
+     */
+    public Builder withLookupCache(long maximumSize) {
+      if (maximumSize < 0) {
+        throw new IllegalArgumentException("The size of the lookup cache can't be negative");
+      }
+      this.lookupCacheSize = maximumSize;
+      return this;
+    }
+
+    /**
+     * Caches the lookups of each provider by network prefix, so that a single entry serves every
+     * IP of the prefix. A result is only cached when its range covers the whole prefix, so lookups
+     * in partially covered prefixes still go to the database and results stay exact. When
+     * combined with {@link #withLookupCache(long)}, the exact cache is looked up first
+     *
+     * @param maximumSize the maximum number of prefixes to cache per provider and IP version, or
+     *     0 not to cache
+     * @param ipV4PrefixLength the length of the IPV4 prefixes, typically 24
+     * @param ipV6PrefixLength the length of the IPV6 prefixes, typically 48
+     * @return this builder
+     * @see #prefixCacheStats()
+     */
+    public Builder withPrefixCache(long maximumSize, int ipV4PrefixLength, int ipV6PrefixLength) {
+      if (maximumSize < 0) {
+        throw new IllegalArgumentException("The size of the prefix cache can't be negative");
+      }
+      if (maximumSize > 0 && (ipV4PrefixLength < 1 || ipV4PrefixLength > 32)) {
+        throw new IllegalArgumentException("The IPV4 prefix length must be between 1 and 32");
+      }
+      if (maximumSize > 0 && (ipV6PrefixLength < 1 || ipV6PrefixLength > 64)) {
+        throw new IllegalArgumentException("The IPV6 prefix length must be between 1 and 64");
+      }
+      this.prefixCacheSize = maximumSize;
+      this.ipV4PrefixLength = ipV4PrefixLength;
+      this.ipV6PrefixLength = ipV6PrefixLength;
+      return this;
+    }
+
     public Builder withReaderListener(@Nonnull LineReaderListener readerListener) {
       this.readerListener = Objects.requireNonNull(readerListener);
       return this;
@@ -192,26 +888,47 @@ public class IPResolver {
       return this;
     }
 
+    /**
+     * @param reloadListener notified of the build time and heap usage of each reload
+     * @return this builder
+     * @see IPResolver#reload(SourceReader)
+     */
+    public Builder withReloadListener(@Nonnull ReloadListener reloadListener) {
+      this.reloadListener = Objects.requireNonNull(reloadListener);
+      return this;
+    }
+
     public IPResolver build() {
       checkSanity();
-      Map<ProviderKey, IPDatabase> databases = new HashMap<>(providers.size());
-      for (SourceReader reader : providers.values()) {
-        databases.put(
-            reader.provider(),
-            reader.read(
-                retainOriginalLine,
-                readerListener,
-                processorListener,
-                builderListener,
-                workersCount));
-      }
-      return new IPResolver(databases);
+      IPResolver resolver = new IPResolver(this);
+      resolver.load(providers.values(), buildConcurrency);
+      return resolver;
+    }
+
+    /**
+     * Returns a resolver straight away and builds the providers in the background, up to {@link
+     * #withBuildConcurrency(int)} at a time. Each provider can be resolved against as soon as it is
+     * built. Until then, resolving against it throws {@link ProviderNotReadyException}, and
+     * resolving against all the providers leaves it out
+     *
+     * @return a resolver whose providers become ready as they are built
+     * @see IPResolver#isReady(ProviderKey)
+     * @see IPResolver#whenReady(ProviderKey)
+     */
+    public IPResolver buildAsync() {
+      checkSanity();
+      IPResolver resolver = new IPResolver(this);
+      resolver.loadAsync(providers.values(), buildConcurrency);
+      return resolver;
     }
 
     private void checkSanity() {
       if (providers.isEmpty()) {
         throw new NoProvidersException("Must build with at least one provider");
       }
+      if (fuseProviders) {
+        providers.values().forEach(IPResolver::checkFusable);
+      }
     }
   }
 }
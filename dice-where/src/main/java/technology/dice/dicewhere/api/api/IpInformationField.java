@@ -0,0 +1,20 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.api.api;
+
+/**
+ * The optional fields of {@link IpInformation} a database can retain. The country and the range
+ * bounds are always retained.
+ */
+public enum IpInformationField {
+  CITY_GEONAME_ID,
+  CITY,
+  LEAST_SPECIFIC_DIVISION,
+  MOST_SPECIFIC_DIVISION,
+  POSTCODE,
+  VPN
+}
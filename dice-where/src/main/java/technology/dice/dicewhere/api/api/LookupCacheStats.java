@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.api.api;
+
+import java.util.Objects;
+
+/** Snapshot of the statistics of a provider's lookup cache */
+public final class LookupCacheStats {
+  private final long hitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final long totalLoadTimeNanos;
+
+  public LookupCacheStats(
+      long hitCount, long missCount, long evictionCount, long totalLoadTimeNanos) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.totalLoadTimeNanos = totalLoadTimeNanos;
+  }
+
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  public long getMissCount() {
+    return missCount;
+  }
+
+  /** @return the ratio of lookups answered by the cache, or 1 if there haven't been any lookups */
+  public double getHitRate() {
+    long requests = hitCount + missCount;
+    return requests == 0 ? 1.0 : (double) hitCount / requests;
+  }
+
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /** @return the time spent looking up the underlying database on cache misses */
+  public long getTotalLoadTimeNanos() {
+    return totalLoadTimeNanos;
+  }
+
+  /** @return the average time spent looking up the underlying database per cache miss */
+  public double getAverageLoadPenaltyNanos() {
+    return missCount == 0 ? 0.0 : (double) totalLoadTimeNanos / missCount;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    LookupCacheStats that = (LookupCacheStats) o;
+    return hitCount == that.hitCount
+        && missCount == that.missCount
+        && evictionCount == that.evictionCount
+        && totalLoadTimeNanos == that.totalLoadTimeNanos;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(hitCount, missCount, evictionCount, totalLoadTimeNanos);
+  }
+
+  @Override
+  public String toString() {
+    return "LookupCacheStats{"
+        + "hitCount="
+        + hitCount
+        + ", missCount="
+        + missCount
+        + ", evictionCount="
+        + evictionCount
+        + ", totalLoadTimeNanos="
+        + totalLoadTimeNanos
+        + '}';
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.api.api;
+
+import technology.dice.dicewhere.provider.ProviderKey;
+
+/** Notified of the reloads of the providers of an {@link IPResolver} */
+public interface ReloadListener {
+  /**
+   * Called once the new database of a provider has been swapped in
+   *
+   * @param provider the provider that was reloaded
+   * @param buildMillis how long reading and building the new database took
+   * @param peakHeapBytes the sum of the peak usage of each heap memory pool of the JVM while the
+   *     new database was built, which includes the database being replaced and anything else
+   *     running at the time
+   */
+  default void reloaded(ProviderKey provider, long buildMillis, long peakHeapBytes) {}
+
+  /**
+   * Called when the new database of a provider couldn't be built. The previous one keeps serving
+   *
+   * @param provider the provider that failed to reload
+   * @param e the reason
+   */
+  default void reloadFailed(ProviderKey provider, Exception e) {}
+}
@@ -0,0 +1,13 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.api.exceptions;
+
+public class DatabaseOutOfOrderException extends RuntimeException {
+  public DatabaseOutOfOrderException(String message) {
+    super(message);
+  }
+}
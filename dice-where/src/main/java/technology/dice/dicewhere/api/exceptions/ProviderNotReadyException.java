@@ -0,0 +1,19 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.api.exceptions;
+
+import technology.dice.dicewhere.provider.ProviderKey;
+
+/** Thrown when resolving against a provider whose database is still being built */
+public class ProviderNotReadyException extends IllegalStateException {
+  private final ProviderKey provider;
+
+  public ProviderNotReadyException(String message, ProviderKey provider) {
+    super(message);
+    this.provider = provider;
+  }
+}
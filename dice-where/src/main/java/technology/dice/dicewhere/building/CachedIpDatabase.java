@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.Nonnull;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.api.api.LookupCacheStats;
+
+/**
+ * Bounded cache of lookups in front of another database, for workloads where a small set of IPs
+ * makes up most of the lookups. Eviction is frequency aware (Window TinyLFU), so a burst of one-off
+ * IPs doesn't flush the popular ones, and reads don't take locks, so the cache is safe and cheap to
+ * share between many threads.
+ *
+ * <p>Misses, including IPs no range covers, are cached as well.
+ */
+public class CachedIpDatabase implements IPDatabase {
+  private final IPDatabase database;
+  private final LoadingCache<IP, Optional<IpInformation>> cache;
+
+  /**
+   * @param database the database to cache lookups of
+   * @param maximumSize the maximum number of IPs to keep
+   */
+  public CachedIpDatabase(@Nonnull IPDatabase database, long maximumSize) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("The maximum size of the cache must be positive");
+    }
+    this.database = Objects.requireNonNull(database);
+    this.cache =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .recordStats()
+            .build(
+                new CacheLoader<IP, Optional<IpInformation>>() {
+                  @Override
+                  public Optional<IpInformation> load(IP ip) {
+                    return database.get(ip);
+                  }
+
+                  @Override
+                  public Map<IP, Optional<IpInformation>> loadAll(Set<? extends IP> ips) {
+                    List<IP> missing = new ArrayList<>(ips);
+                    List<Optional<IpInformation>> results = database.getAll(missing);
+                    Map<IP, Optional<IpInformation>> loaded = new HashMap<>(missing.size());
+                    for (int i = 0; i < missing.size(); i++) {
+                      loaded.put(missing.get(i), results.get(i));
+                    }
+                    return loaded;
+                  }
+                });
+  }
+
+  @Override
+  public Optional<IpInformation> get(IP ip) {
+    return cache.get(ip);
+  }
+
+  /**
+   * Answered from the cache when the IP is cached. Otherwise answered by the underlying database
+   * without caching anything, as country lookups are cheaper than materialising a cached result
+   */
+  @Override
+  public Optional<String> getCountry(IP ip) {
+    Optional<IpInformation> cached = cache.asMap().get(ip);
+    if (cached != null) {
+      return cached.map(IpInformation::getCountryCodeAlpha2);
+    }
+    return database.getCountry(ip);
+  }
+
+  /** Looks up the IPs that aren't cached in a single batch against the underlying database */
+  @Override
+  public List<Optional<IpInformation>> getAll(List<IP> ips) {
+    Map<IP, Optional<IpInformation>> cached = cache.getAll(ips);
+    List<Optional<IpInformation>> results = new ArrayList<>(ips.size());
+    for (IP ip : ips) {
+      results.add(cached.get(ip));
+    }
+    return results;
+  }
+
+  /** @return the statistics of the cache since it was created */
+  public LookupCacheStats stats() {
+    CacheStats stats = cache.stats();
+    return new LookupCacheStats(
+        stats.hitCount(), stats.missCount(), stats.evictionCount(), stats.totalLoadTime());
+  }
+
+  /** @return the database lookups are cached from */
+  public IPDatabase getDatabase() {
+    return database;
+  }
+
+  /** Empties the cache and closes the database lookups are cached from */
+  @Override
+  public void close() {
+    cache.invalidateAll();
+    database.close();
+  }
+}
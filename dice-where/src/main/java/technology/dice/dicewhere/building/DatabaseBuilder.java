@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building;
+
+import com.google.common.collect.Queues;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.mapdb.DBException;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.api.api.IpInformationField;
+import technology.dice.dicewhere.api.exceptions.DatabaseOutOfOrderException;
+import technology.dice.dicewhere.decorator.Decorator;
+import technology.dice.dicewhere.decorator.DecoratorInformation;
+import technology.dice.dicewhere.lineprocessing.SerializedLine;
+import technology.dice.dicewhere.provider.ProviderKey;
+
+/**
+ * Consumes the serialized lines produced by the line processor, decorates them if a decorator is
+ * configured and hands each resulting range, in order, to the concrete storage engine.
+ *
+ * @param <D> the type of database produced once all the lines have been consumed
+ */
+public abstract class DatabaseBuilder<D extends RangeIpDatabase> implements Runnable {
+  private final BlockingQueue<SerializedLine> source;
+  private final DatabaseBuilderListener listener;
+  private final ProviderKey provider;
+  private final Decorator<? extends DecoratorInformation> decorator;
+  private volatile boolean expectingMore;
+  private int processedLines = 0;
+  private FieldProjection projection;
+  private boolean coalesce = false;
+  private IpInformation pending;
+  private final List<SerializedLine> pendingLines = new ArrayList<>();
+  private int mergedRanges = 0;
+
+  protected DatabaseBuilder(
+      ProviderKey provider,
+      BlockingQueue<SerializedLine> source,
+      DatabaseBuilderListener listener,
+      Decorator<? extends DecoratorInformation> decorator) {
+    this.source = source;
+    this.expectingMore = true;
+    this.listener = listener;
+    this.provider = provider;
+    this.decorator = decorator;
+  }
+
+  public void dontExpectMore() {
+    expectingMore = false;
+  }
+
+  public int remainingLines() {
+    return source.size();
+  }
+
+  public int processedLines() {
+    return processedLines;
+  }
+
+  /**
+   * Only retains the given optional fields of each range, and merges adjacent ranges left with the
+   * same location. Must be called before {@link #run()}
+   *
+   * @param fields the fields to retain
+   * @return this builder
+   */
+  public DatabaseBuilder<D> withRetainedFields(Set<IpInformationField> fields) {
+    this.projection = new FieldProjection(fields);
+    this.coalesce = true;
+    return this;
+  }
+
+  /**
+   * Merges each range into the previous one when it starts right after it and has the same
+   * location, as is common in sources split along CIDR boundaries. Lookups in merged ranges report
+   * the bounds of the merged range. Must be called before {@link #run()}
+   *
+   * @param coalesce whether to merge adjacent ranges
+   * @return this builder
+   */
+  public DatabaseBuilder<D> withRangeCoalescing(boolean coalesce) {
+    this.coalesce = coalesce || projection != null;
+    return this;
+  }
+
+  /** @return how many ranges were merged into the range before them */
+  public int mergedRanges() {
+    return mergedRanges;
+  }
+
+  protected ProviderKey getProvider() {
+    return provider;
+  }
+
+  protected Optional<Decorator<? extends DecoratorInformation>> getDecorator() {
+    return Optional.ofNullable(decorator);
+  }
+
+  @Override
+  public void run() {
+    while (expectingMore || source.size() > 0) {
+      SerializedLine beingProcessed = null;
+      List<SerializedLine> availableForAdding = new ArrayList<>(source.size());
+      try {
+        Queues.drain(source, availableForAdding, source.size(), 1, TimeUnit.NANOSECONDS);
+        for (SerializedLine currentLine : availableForAdding) {
+          try {
+            beingProcessed = currentLine;
+            decorateEntry(currentLine.getParsedLine().getInfo())
+                .forEach(entry -> offer(entry, currentLine));
+            if (!isPending(currentLine)) {
+              lineAdded(currentLine);
+            }
+          } catch (DBException.NotSorted | DatabaseOutOfOrderException e) {
+            listener.lineOutOfOrder(provider, beingProcessed, e);
+          } catch (Exception e) {
+            throw new RuntimeException("Database builder interrupted", e);
+          }
+        }
+      } catch (InterruptedException e) {
+        listener.builderInterrupted(provider, e);
+        throw new RuntimeException("Database builder interrupted", e);
+      }
+    }
+    flushPending(null);
+    if (coalesce) {
+      listener.rangesMerged(provider, mergedRanges);
+    }
+  }
+
+  /**
+   * Adds the range right away, or when coalescing, holds it back until it is known whether the
+   * next range extends it. The lines of a range held back are only reported once it is added
+   */
+  private void offer(IpInformation entry, SerializedLine line) {
+    if (!coalesce) {
+      add(entry);
+      return;
+    }
+    IpInformation projected = projection == null ? entry : projection.project(entry);
+    IpInformation merged = pending == null ? null : FieldProjection.merge(pending, projected);
+    if (merged != null) {
+      pending = merged;
+      holdBack(line);
+      mergedRanges++;
+      return;
+    }
+    flushPending(line);
+    pending = projected;
+    holdBack(line);
+  }
+
+  private void holdBack(SerializedLine line) {
+    if (!isPending(line)) {
+      pendingLines.add(line);
+    }
+  }
+
+  private boolean isPending(SerializedLine line) {
+    return !pendingLines.isEmpty() && pendingLines.get(pendingLines.size() - 1) == line;
+  }
+
+  /**
+   * Adds the range held back and reports the lines merged into it, other than the line being
+   * offered, which may have more ranges to come and is reported by {@link #run()}
+   *
+   * @param offering the line being offered, or null once all the lines have been
+   */
+  private void flushPending(SerializedLine offering) {
+    if (pending == null) {
+      return;
+    }
+    IpInformation entry = pending;
+    int complete = isPending(offering) ? pendingLines.size() - 1 : pendingLines.size();
+    pending = null;
+    try {
+      add(entry);
+    } catch (DBException.NotSorted | DatabaseOutOfOrderException e) {
+      for (int i = 0; i < complete; i++) {
+        listener.lineOutOfOrder(provider, pendingLines.get(i), e);
+      }
+      boolean offeringFailed = complete < pendingLines.size();
+      pendingLines.clear();
+      if (offeringFailed) {
+        // its remaining ranges are skipped, as when not coalescing
+        throw e;
+      }
+      return;
+    }
+    for (int i = 0; i < complete; i++) {
+      lineAdded(pendingLines.get(i));
+    }
+    pendingLines.clear();
+  }
+
+  private void lineAdded(SerializedLine line) {
+    processedLines++;
+    listener.lineAdded(provider, line);
+  }
+
+  private Stream<IpInformation> decorateEntry(IpInformation entry) throws UnknownHostException {
+    if (getDecorator().isPresent()) {
+      return getDecorator().get().decorate(entry);
+    } else {
+      return Stream.of(entry);
+    }
+  }
+
+  /**
+   * Stores a single range. Ranges are handed over in the order they were read from the source.
+   *
+   * @param entry the range to store
+   * @throws DatabaseOutOfOrderException if the range does not start after the previous one
+   */
+  protected abstract void add(IpInformation entry);
+
+  /**
+   * Must be called only after all the lines have been consumed by {@link #run()}
+   *
+   * @return the database holding every range added so far
+   */
+  public abstract D build();
+}
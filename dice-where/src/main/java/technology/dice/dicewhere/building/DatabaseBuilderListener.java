@@ -19,4 +19,12 @@ public interface DatabaseBuilderListener {
   }
 
   default void lineAdded(ProviderKey provider, SerializedLine serializedLine) {}
+
+  /**
+   * Called once all the lines have been added, when adjacent ranges are coalesced
+   *
+   * @param provider the provider whose database was built
+   * @param merged how many ranges were merged into the range before them
+   */
+  default void rangesMerged(ProviderKey provider, int merged) {}
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building;
+
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.api.api.IpInformationField;
+
+/**
+ * Drops the fields of ranges a database doesn't retain, and merges adjacent ranges with the same
+ * location, once projected if a projection applies.
+ */
+final class FieldProjection {
+  private final Set<IpInformationField> fields;
+
+  FieldProjection(Set<IpInformationField> fields) {
+    this.fields = EnumSet.noneOf(IpInformationField.class);
+    this.fields.addAll(fields);
+  }
+
+  /** @return the range with only the retained fields */
+  IpInformation project(IpInformation info) {
+    return IpInformation.builder()
+        .withCountryCodeAlpha2(info.getCountryCodeAlpha2())
+        .withStartOfRange(info.getStartOfRange())
+        .withEndOfRange(info.getEndOfRange())
+        .withOriginalLine(info.getOriginalLine().orElse(null))
+        .withCityGeonameId(retained(IpInformationField.CITY_GEONAME_ID, info.getCityGeonameId()))
+        .withCity(retained(IpInformationField.CITY, info.getCity()))
+        .withLeastSpecificDivision(
+            retained(IpInformationField.LEAST_SPECIFIC_DIVISION, info.getLeastSpecificDivision()))
+        .withMostSpecificDivision(
+            retained(IpInformationField.MOST_SPECIFIC_DIVISION, info.getMostSpecificDivision()))
+        .withPostcode(retained(IpInformationField.POSTCODE, info.getPostcode()))
+        .isVpn(fields.contains(IpInformationField.VPN) ? info.isVpn() : Optional.empty())
+        .build();
+  }
+
+  private String retained(IpInformationField field, Optional<String> value) {
+    return fields.contains(field) ? value.orElse(null) : null;
+  }
+
+  /**
+   * @param previous a range, projected if a projection applies
+   * @param next a range, projected if a projection applies
+   * @return the range covering both, if the second starts right after the first and they share
+   *     their location, otherwise null. Ranges retaining their original line are never merged
+   */
+  static IpInformation merge(IpInformation previous, IpInformation next) {
+    if (previous.getOriginalLine().isPresent() || next.getOriginalLine().isPresent()) {
+      return null;
+    }
+    IP end = previous.getEndOfRange();
+    IP start = next.getStartOfRange();
+    if (end.getLength() != start.getLength()
+        || !end.isLowerThan(start)
+        || !end.next().equals(start)) {
+      return null;
+    }
+    if (!Objects.equals(previous.getCountryCodeAlpha2(), next.getCountryCodeAlpha2())
+        || !Objects.equals(previous.getCityGeonameId(), next.getCityGeonameId())
+        || !Objects.equals(previous.getCity(), next.getCity())
+        || !Objects.equals(previous.getLeastSpecificDivision(), next.getLeastSpecificDivision())
+        || !Objects.equals(previous.getMostSpecificDivision(), next.getMostSpecificDivision())
+        || !Objects.equals(previous.getPostcode(), next.getPostcode())
+        || !Objects.equals(previous.isVpn(), next.isVpn())) {
+      return null;
+    }
+    return IpInformation.builder(previous).withEndOfRange(next.getEndOfRange()).build();
+  }
+}
@@ -5,10 +5,45 @@
  */
 package technology.dice.dicewhere.building;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import technology.dice.dicewhere.api.api.IP;
 import technology.dice.dicewhere.api.api.IpInformation;
 
-public interface IPDatabase {
+public interface IPDatabase extends AutoCloseable {
   Optional<IpInformation> get(IP ip);
+
+  /**
+   * Looks up a batch of IPs. Databases that can do better than one independent lookup per IP
+   * override this, typically by sorting the batch and walking their ranges once.
+   *
+   * @param ips the IPs to look up
+   * @return the result for each IP, in the order of the input
+   */
+  default List<Optional<IpInformation>> getAll(List<IP> ips) {
+    List<Optional<IpInformation>> results = new ArrayList<>(ips.size());
+    for (IP ip : ips) {
+      results.add(get(ip));
+    }
+    return results;
+  }
+
+  /**
+   * Looks up the country of an IP only. Databases that can find it without materialising a full
+   * result override this.
+   *
+   * @param ip the IP to look up
+   * @return the ISO 3166 alpha 2 code of the country of the IP, or empty if it isn't covered
+   */
+  default Optional<String> getCountry(IP ip) {
+    return get(ip).map(IpInformation::getCountryCodeAlpha2);
+  }
+
+  /**
+   * Releases what the database holds outside the heap, such as the files and direct memory of
+   * MapDB databases. No lookup may be in flight or follow.
+   */
+  @Override
+  default void close() {}
 }
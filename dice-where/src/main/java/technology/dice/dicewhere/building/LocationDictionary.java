@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.lineprocessing.serializers.protobuf.IPInformationProto;
+import technology.dice.dicewhere.utils.ProtoValueConverter;
+
+/**
+ * Deduplicates the location part of {@link IpInformation} (everything but the range bounds and the
+ * original line) while a database is being built. Millions of ranges share a few hundred thousand
+ * locations at most, so each distinct location is serialised once and ranges refer to it by its
+ * position in {@link #locations()}.
+ */
+public class LocationDictionary {
+  private final Map<ByteString, Integer> ids = new HashMap<>();
+  private final List<byte[]> locations;
+
+  public LocationDictionary() {
+    this(new ArrayList<>());
+  }
+
+  /** @param locations where the distinct serialised locations are appended to */
+  public LocationDictionary(List<byte[]> locations) {
+    this.locations = locations;
+  }
+
+  /**
+   * @param info the range whose location should be stored
+   * @return the id of the location of the range, adding it to the dictionary if it is new
+   */
+  public int locationId(IpInformation info) {
+    ByteString location = encode(info).toByteString();
+    Integer id = ids.get(location);
+    if (id == null) {
+      id = locations.size();
+      locations.add(location.toByteArray());
+      ids.put(location, id);
+    }
+    return id;
+  }
+
+  public List<byte[]> locations() {
+    return locations;
+  }
+
+  public int size() {
+    return locations.size();
+  }
+
+  private static IPInformationProto.IpInformationProto encode(IpInformation input) {
+    return IPInformationProto.IpInformationProto.newBuilder()
+        .setCity(input.getCity().orElse(""))
+        .setCityGeoNameId(input.getCityGeonameId().orElse(""))
+        .setCountryCodeAlpha2(input.getCountryCodeAlpha2())
+        .setLeastSpecificDivision(input.getLeastSpecificDivision().orElse(""))
+        .setMostSpecificDivision(input.getMostSpecificDivision().orElse(""))
+        .setPostcode(input.getPostcode().orElse(""))
+        .setIsVpn(ProtoValueConverter.toThreeStateValue(input.isVpn().orElse(null)))
+        .build();
+  }
+
+  /**
+   * @param location a location as stored in {@link #locations()}
+   * @return the country of the location
+   */
+  public static String decodeCountry(byte[] location) {
+    try {
+      return IPInformationProto.IpInformationProto.parseFrom(location).getCountryCodeAlpha2();
+    } catch (InvalidProtocolBufferException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param location a location as stored in {@link #locations()}
+   * @return a builder populated with the location fields. The range bounds, and optionally the
+   *     original line, are left for the caller to fill in
+   */
+  public static IpInformation.Builder decode(byte[] location) {
+    try {
+      IPInformationProto.IpInformationProto proto =
+          IPInformationProto.IpInformationProto.parseFrom(location);
+      return IpInformation.builder()
+          .withCountryCodeAlpha2(proto.getCountryCodeAlpha2())
+          .withCityGeonameId(proto.getCityGeoNameId())
+          .withCity(proto.getCity())
+          .withLeastSpecificDivision(proto.getLeastSpecificDivision())
+          .withMostSpecificDivision(proto.getMostSpecificDivision())
+          .withPostcode(proto.getPostcode())
+          .isVpn(proto.getIsVpn());
+    } catch (InvalidProtocolBufferException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nonnull;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.api.api.LookupCacheStats;
+
+/**
+ * Bounded cache of lookups in front of another database, keyed by network prefix rather than by
+ * IP. Traffic from scanners and mobile carriers spreads over whole subnets, so caching by exact IP
+ * rarely hits for it.
+ *
+ * <p>A result is cached for a prefix only when its range covers the whole prefix, in which case it
+ * is the result of every IP in the prefix. Lookups in prefixes that are partially covered, or not
+ * covered at all, always go to the underlying database, so results are the same as without the
+ * cache.
+ */
+public class PrefixCachedIpDatabase implements IPDatabase {
+  private final IPDatabase database;
+  private final int ipV4Shift;
+  private final int ipV6Shift;
+  private final Cache<Long, Optional<IpInformation>> ipV4Cache;
+  private final Cache<Long, Optional<IpInformation>> ipV6Cache;
+  private final LongAdder loadTimeNanos = new LongAdder();
+
+  /**
+   * @param database the database to cache lookups of
+   * @param maximumSize the maximum number of prefixes to keep, for each of IPV4 and IPV6
+   * @param ipV4PrefixLength the length of the IPV4 prefixes, between 1 and 32
+   * @param ipV6PrefixLength the length of the IPV6 prefixes, between 1 and 64
+   */
+  public PrefixCachedIpDatabase(
+      @Nonnull IPDatabase database, long maximumSize, int ipV4PrefixLength, int ipV6PrefixLength) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("The maximum size of the cache must be positive");
+    }
+    if (ipV4PrefixLength < 1 || ipV4PrefixLength > 32) {
+      throw new IllegalArgumentException("The IPV4 prefix length must be between 1 and 32");
+    }
+    if (ipV6PrefixLength < 1 || ipV6PrefixLength > 64) {
+      throw new IllegalArgumentException("The IPV6 prefix length must be between 1 and 64");
+    }
+    this.database = Objects.requireNonNull(database);
+    this.ipV4Shift = 32 - ipV4PrefixLength;
+    this.ipV6Shift = 64 - ipV6PrefixLength;
+    this.ipV4Cache = Caffeine.newBuilder().maximumSize(maximumSize).recordStats().build();
+    this.ipV6Cache = Caffeine.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  @Override
+  public Optional<IpInformation> get(IP ip) {
+    int length = ip.getLength();
+    if (length == 4) {
+      long prefix = ip.getLow() >>> ipV4Shift;
+      Optional<IpInformation> cached = ipV4Cache.getIfPresent(prefix);
+      if (cached != null) {
+        return cached;
+      }
+      Optional<IpInformation> result = load(ip);
+      long first = prefix << ipV4Shift;
+      if (covers(result, 0, first, 0, first | ((1L << ipV4Shift) - 1))) {
+        ipV4Cache.put(prefix, result);
+      }
+      return result;
+    } else if (length == 16) {
+      long prefix = ip.getHigh() >>> ipV6Shift;
+      Optional<IpInformation> cached = ipV6Cache.getIfPresent(prefix);
+      if (cached != null) {
+        return cached;
+      }
+      Optional<IpInformation> result = load(ip);
+      long first = prefix << ipV6Shift;
+      if (covers(result, first, 0, first | ((1L << ipV6Shift) - 1), -1)) {
+        ipV6Cache.put(prefix, result);
+      }
+      return result;
+    }
+    return database.get(ip);
+  }
+
+  /**
+   * Answered from the cache when the prefix of the IP is cached. Otherwise answered by the
+   * underlying database without caching anything, as country lookups are cheaper than
+   * materialising a cached result
+   */
+  @Override
+  public Optional<String> getCountry(IP ip) {
+    int length = ip.getLength();
+    Optional<IpInformation> cached = null;
+    if (length == 4) {
+      cached = ipV4Cache.asMap().get(ip.getLow() >>> ipV4Shift);
+    } else if (length == 16) {
+      cached = ipV6Cache.asMap().get(ip.getHigh() >>> ipV6Shift);
+    }
+    if (cached != null) {
+      return cached.map(IpInformation::getCountryCodeAlpha2);
+    }
+    return database.getCountry(ip);
+  }
+
+  private Optional<IpInformation> load(IP ip) {
+    long start = System.nanoTime();
+    Optional<IpInformation> result = database.get(ip);
+    loadTimeNanos.add(System.nanoTime() - start);
+    return result;
+  }
+
+  private static boolean covers(
+      Optional<IpInformation> result, long firstHigh, long firstLow, long lastHigh, long lastLow) {
+    if (!result.isPresent()) {
+      return false;
+    }
+    IP start = result.get().getStartOfRange();
+    IP end = result.get().getEndOfRange();
+    return start != null
+        && end != null
+        && compare(start.getHigh(), start.getLow(), firstHigh, firstLow) <= 0
+        && compare(end.getHigh(), end.getLow(), lastHigh, lastLow) >= 0;
+  }
+
+  private static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+    int high = Long.compareUnsigned(aHigh, bHigh);
+    return high != 0 ? high : Long.compareUnsigned(aLow, bLow);
+  }
+
+  /** @return the statistics of the IPV4 and IPV6 caches combined, since they were created */
+  public LookupCacheStats stats() {
+    CacheStats stats = ipV4Cache.stats().plus(ipV6Cache.stats());
+    return new LookupCacheStats(
+        stats.hitCount(), stats.missCount(), stats.evictionCount(), loadTimeNanos.sum());
+  }
+
+  /** @return the database lookups are cached from */
+  public IPDatabase getDatabase() {
+    return database;
+  }
+
+  /** Empties the cache and closes the database lookups are cached from */
+  @Override
+  public void close() {
+    ipV4Cache.invalidateAll();
+    ipV6Cache.invalidateAll();
+    database.close();
+  }
+}
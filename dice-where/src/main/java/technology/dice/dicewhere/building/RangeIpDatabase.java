@@ -0,0 +1,11 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+package technology.dice.dicewhere.building;
+
+/** An {@link IPDatabase} holding an explicit, ordered set of IP ranges built by a {@link DatabaseBuilder} */
+public interface RangeIpDatabase extends IPDatabase {
+  long size();
+}
@@ -27,7 +27,7 @@ public abstract class MmdbAnonymousSource implements AnonymousSource {
   @Override
   public IpInformation withAnonymousInformation(IP ip, IpInformation ipInformation) {
     try {
-      final InetAddress inetAddress = InetAddress.getByAddress(ip.getBytes());
+      final InetAddress inetAddress = ip.toInetAddress();
       final AnonymousResult anonymousIpResponse = anonymous.get(inetAddress, anonymousResult());
       if (anonymousIpResponse != null) {
         return IpInformation.builder(ipInformation)
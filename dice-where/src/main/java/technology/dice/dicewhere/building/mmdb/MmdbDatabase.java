@@ -5,9 +5,12 @@
  */
 package technology.dice.dicewhere.building.mmdb;
 
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import technology.dice.dicewhere.api.api.IP;
 import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.api.api.LookupCacheStats;
 import technology.dice.dicewhere.building.DatabaseBuilderListener;
 import technology.dice.dicewhere.building.IPDatabase;
 import technology.dice.dicewhere.lineprocessing.LineProcessorListener;
@@ -20,6 +23,7 @@ public class MmdbDatabase implements IPDatabase, SourceReader {
   private final LocationSource locationSource;
   private final Optional<AnonymousSource> anonymousSource;
   private final ProviderKey key;
+  private volatile SingleFlight singleFlight;
 
   public MmdbDatabase(
       String name, LocationSource locationSource, Optional<AnonymousSource> anonymousSource) {
@@ -38,8 +42,44 @@ public class MmdbDatabase implements IPDatabase, SourceReader {
     this(name, locationSource, Optional.empty());
   }
 
+  /**
+   * Shares the decode of an IP between the concurrent lookups of it, and keeps the results for a
+   * short while so that bursts of lookups of the same IP, such as bot storms and retries, decode it
+   * once. Off by default
+   *
+   * @param resultTtl how long to keep results for, 0 to only share the decodes in flight
+   * @param unit the unit of the time to keep results for
+   * @param maximumSize the maximum number of results to keep
+   * @return this database
+   * @see #coalescingStats()
+   */
+  public MmdbDatabase withSingleFlight(long resultTtl, TimeUnit unit, long maximumSize) {
+    if (resultTtl < 0) {
+      throw new IllegalArgumentException("The time to keep results for can't be negative");
+    }
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("The maximum number of results must be positive");
+    }
+    this.singleFlight = new SingleFlight(resultTtl, Objects.requireNonNull(unit), maximumSize);
+    return this;
+  }
+
+  /**
+   * @return the lookups that didn't decode, as hits, against the decodes, as misses, so that the
+   *     hit rate is the coalescing ratio. Empty if lookups aren't coalesced
+   * @see #withSingleFlight(long, TimeUnit, long)
+   */
+  public Optional<LookupCacheStats> coalescingStats() {
+    return Optional.ofNullable(singleFlight).map(SingleFlight::stats);
+  }
+
   @Override
   public Optional<IpInformation> get(IP ip) {
+    SingleFlight flights = singleFlight;
+    return flights == null ? decode(ip) : flights.get(ip, this::decode);
+  }
+
+  private Optional<IpInformation> decode(IP ip) {
     return locationSource
         .resolve(ip)
         .map(info -> anonymousSource.map(a -> a.withAnonymousInformation(ip, info)).orElse(info));
@@ -55,6 +95,11 @@ public class MmdbDatabase implements IPDatabase, SourceReader {
     return this;
   }
 
+  @Override
+  public boolean fusable() {
+    return false;
+  }
+
   @Override
   public ProviderKey provider() {
     return this.key;
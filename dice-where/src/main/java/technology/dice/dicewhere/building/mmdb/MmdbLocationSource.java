@@ -45,7 +45,7 @@ public abstract class MmdbLocationSource implements LocationSource {
   @Override
   public Optional<IpInformation> resolve(IP ip) {
     try {
-      final InetAddress inetAddress = InetAddress.getByAddress(ip.getBytes());
+      final InetAddress inetAddress = ip.toInetAddress();
       Builder ipInformationBuilder =
           IpInformation.builder().withStartOfRange(ip).withEndOfRange(ip);
       if (this.mmdbDatabaseType == MmdbDatabaseType.CITY) {
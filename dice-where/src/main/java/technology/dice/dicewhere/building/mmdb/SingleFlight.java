@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.mmdb;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.base.Throwables;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.api.api.LookupCacheStats;
+
+/**
+ * Shares the decode of an IP between the concurrent lookups of it: the first lookup decodes, and
+ * the others wait for its result rather than decoding again. Results are then kept for a short
+ * while, so that a burst of lookups of the same IP arriving one after the other is absorbed too.
+ */
+final class SingleFlight {
+  private final ConcurrentMap<IP, CompletableFuture<Optional<IpInformation>>> inFlight =
+      new ConcurrentHashMap<>();
+  private final Cache<IP, Optional<IpInformation>> recent;
+  private final LongAdder lookups = new LongAdder();
+  private final LongAdder decodes = new LongAdder();
+  private final LongAdder decodeTimeNanos = new LongAdder();
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  /**
+   * @param resultTtl how long to keep results for, 0 to only share the decodes in flight
+   * @param unit the unit of the time to keep results for
+   * @param maximumSize the maximum number of results to keep
+   */
+  SingleFlight(long resultTtl, TimeUnit unit, long maximumSize) {
+    this.recent =
+        resultTtl > 0
+            ? Caffeine.newBuilder()
+                .expireAfterWrite(resultTtl, unit)
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build()
+            : null;
+  }
+
+  Optional<IpInformation> get(IP ip, Function<IP, Optional<IpInformation>> decode) {
+    lookups.increment();
+    if (recent != null) {
+      Optional<IpInformation> result = recent.getIfPresent(ip);
+      if (result != null) {
+        return result;
+      }
+    }
+    CompletableFuture<Optional<IpInformation>> flight = new CompletableFuture<>();
+    CompletableFuture<Optional<IpInformation>> shared = inFlight.putIfAbsent(ip, flight);
+    if (shared != null) {
+      waiting.incrementAndGet();
+      try {
+        return shared.join();
+      } catch (CompletionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw e;
+      } finally {
+        waiting.decrementAndGet();
+      }
+    }
+    decodes.increment();
+    long start = System.nanoTime();
+    try {
+      Optional<IpInformation> result = decode.apply(ip);
+      if (recent != null) {
+        recent.put(ip, result);
+      }
+      flight.complete(result);
+      return result;
+    } catch (Throwable e) {
+      // errors too, or the lookups waiting on the flight would wait forever
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      decodeTimeNanos.add(System.nanoTime() - start);
+      inFlight.remove(ip, flight);
+    }
+  }
+
+  /** @return how many lookups are waiting for the decode of another one */
+  int waiting() {
+    return waiting.get();
+  }
+
+  /**
+   * @return the lookups that didn't decode, either because they joined a decode in flight or found
+   *     a recent result, as hits, and the decodes as misses
+   */
+  LookupCacheStats stats() {
+    // decodes first, as every decode counted then has had its lookup counted too
+    long decoded = decodes.sum();
+    return new LookupCacheStats(
+        lookups.sum() - decoded,
+        decoded,
+        recent == null ? 0 : recent.stats().evictionCount(),
+        decodeTimeNanos.sum());
+  }
+}
@@ -6,40 +6,34 @@
 
 package technology.dice.dicewhere.building.navigablemap;
 
-import com.google.common.collect.Queues;
 import com.google.protobuf.ByteString;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Stream;
 import org.jetbrains.annotations.NotNull;
 import org.mapdb.DB;
-import org.mapdb.DBException;
 import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
 import technology.dice.dicewhere.api.api.IP;
 import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.building.DatabaseBuilder;
 import technology.dice.dicewhere.building.DatabaseBuilderListener;
+import technology.dice.dicewhere.building.LocationDictionary;
 import technology.dice.dicewhere.decorator.Decorator;
 import technology.dice.dicewhere.decorator.DecoratorInformation;
 import technology.dice.dicewhere.lineprocessing.SerializedLine;
 import technology.dice.dicewhere.lineprocessing.serializers.IPSerializer;
 import technology.dice.dicewhere.lineprocessing.serializers.protobuf.IPInformationProto;
 import technology.dice.dicewhere.provider.ProviderKey;
-import technology.dice.dicewhere.utils.ProtoValueConverter;
 
-public class MapDbDatabaseBuilder implements Runnable {
-  private final BlockingQueue<SerializedLine> source;
-  private final DatabaseBuilderListener listener;
-  private final ProviderKey provider;
+/**
+ * Builds a {@link NavigableMapIpDatabase} backed by MapDB. Each range is stored under its first IP
+ * and only references its location, which is stored once in a {@link LocationDictionary} kept in
+ * the same MapDB database.
+ */
+public class MapDbDatabaseBuilder extends DatabaseBuilder<NavigableMapIpDatabase> {
+  private final DB db;
   private final DB.TreeMapSink<IP, byte[]> sink;
-  private boolean expectingMore;
-  private int processedLines = 0;
-  private final Decorator<? extends DecoratorInformation> decorator;
+  private final LocationDictionary locations;
 
   public MapDbDatabaseBuilder(
       ProviderKey provider,
@@ -64,18 +58,17 @@ public class MapDbDatabaseBuilder implements Runnable {
       BlockingQueue<SerializedLine> source,
       DatabaseBuilderListener listener,
       Decorator<? extends DecoratorInformation> decorator) {
-    this.source = source;
-    this.expectingMore = true;
-    this.listener = listener;
-    this.provider = provider;
-    DB db = createDB(storageMode);
+    super(provider, source, listener, decorator);
+    this.db = createDB(storageMode);
 
     DB.TreeMapSink<IP, byte[]> sink =
         db.treeMap(
                 Objects.requireNonNull(provider).name(), new IPSerializer(), Serializer.BYTE_ARRAY)
             .createFromSink();
     this.sink = sink;
-    this.decorator = decorator;
+    this.locations =
+        new LocationDictionary(
+            db.indexTreeList(provider.name() + "-locations", Serializer.BYTE_ARRAY).create());
   }
 
   @NotNull
@@ -91,6 +84,10 @@ public class MapDbDatabaseBuilder implements Runnable {
       case OFF_HEAP:
         db = DBMaker.memoryDirectDB().checksumHeaderBypass().make();
         break;
+      case SORTED_ARRAY:
+      case BLOCK_COMPRESSED:
+        throw new IllegalArgumentException(
+            "Storage mode " + storageMode + " is not backed by MapDB");
       case FILE:
       default:
         db =
@@ -106,84 +103,42 @@ public class MapDbDatabaseBuilder implements Runnable {
     return db;
   }
 
-  public void dontExpectMore() {
-    expectingMore = false;
-  }
-
-  public int remainingLines() {
-    return source.size();
-  }
-
-  public int processedLines() {
-    return processedLines;
-  }
-
-  protected Optional<Decorator<? extends DecoratorInformation>> getDecorator() {
-    return Optional.ofNullable(decorator);
-  }
-
   @Override
-  public void run() {
-    while (expectingMore || source.size() > 0) {
-      SerializedLine beingProcessed = null;
-      List<SerializedLine> availableForAdding = new ArrayList<>(source.size());
-      try {
-        Queues.drain(source, availableForAdding, source.size(), 1, TimeUnit.NANOSECONDS);
-        for (SerializedLine currentLine : availableForAdding) {
-          try {
-            beingProcessed = currentLine;
-            decorateEntry(currentLine.getParsedLine().getInfo())
-                .forEach(i -> sink.put(i.getStartOfRange(), buildIpProtobuf(i).toByteArray()));
-            processedLines++;
-            listener.lineAdded(provider, currentLine);
-
-          } catch (DBException.NotSorted e) {
-            listener.lineOutOfOrder(provider, beingProcessed, e);
-          } catch (Exception e) {
-            throw new RuntimeException("Database builder interrupted", e);
-          }
-        }
-      } catch (InterruptedException e) {
-        listener.builderInterrupted(provider, e);
-        throw new RuntimeException("Database builder interrupted", e);
-      }
-    }
+  protected void add(IpInformation entry) {
+    sink.put(entry.getStartOfRange(), buildRangeProtobuf(entry).toByteArray());
   }
 
-  private Stream<IpInformation> decorateEntry(IpInformation entry) throws UnknownHostException {
-    if (getDecorator().isPresent()) {
-      return getDecorator().get().decorate(entry);
-    } else {
-      return Stream.of(entry);
-    }
-  }
-
-  private IPInformationProto.IpInformationProto buildIpProtobuf(IpInformation input) {
-    IPInformationProto.IpInformationProto.Builder messageBuilder =
-        IPInformationProto.IpInformationProto.newBuilder()
-            .setCity(input.getCity().orElse(""))
-            .setCityGeoNameId(input.getCityGeonameId().orElse(""))
-            .setCountryCodeAlpha2(input.getCountryCodeAlpha2())
-            .setLeastSpecificDivision(input.getLeastSpecificDivision().orElse(""))
-            .setMostSpecificDivision(input.getMostSpecificDivision().orElse(""))
-            .setPostcode(input.getPostcode().orElse(""))
-            .setStartOfRange(ByteString.copyFrom(input.getStartOfRange().getBytes()))
+  private IPInformationProto.IpRangeProto buildRangeProtobuf(IpInformation input) {
+    IPInformationProto.IpRangeProto.Builder messageBuilder =
+        IPInformationProto.IpRangeProto.newBuilder()
             .setEndOfRange(ByteString.copyFrom(input.getEndOfRange().getBytes()))
-            .setIsVpn(ProtoValueConverter.toThreeStateValue(input.isVpn().orElse(null)));
+            .setLocationId(locations.locationId(input));
 
     input.getOriginalLine().ifPresent(messageBuilder::setOriginalLine);
 
     return messageBuilder.build();
   }
 
+  @Override
   public NavigableMapIpDatabase build() {
-    return new NavigableMapIpDatabase(sink.create());
+    return new NavigableMapIpDatabase(sink.create(), locations.locations(), db);
   }
 
   public enum StorageMode {
     HEAP,
     HEAP_BYTE_ARRAY,
     OFF_HEAP,
-    FILE
+    FILE,
+    /**
+     * Not backed by MapDB: ranges are kept in sorted primitive arrays and looked up by binary
+     * search. See {@link technology.dice.dicewhere.building.sortedarray.SortedArrayDatabaseBuilder}
+     */
+    SORTED_ARRAY,
+    /**
+     * Not backed by MapDB: ranges are built as in {@link #SORTED_ARRAY} and then delta encoded in
+     * blocks, for the smallest heap footprint. See {@link
+     * technology.dice.dicewhere.building.sortedarray.BlockCompressedIpDatabase}
+     */
+    BLOCK_COMPRESSED
   }
 }
@@ -7,56 +7,53 @@
 package technology.dice.dicewhere.building.navigablemap;
 
 import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Optional;
-
+import org.mapdb.DB;
 import technology.dice.dicewhere.api.api.IP;
 import technology.dice.dicewhere.api.api.IpInformation;
-import technology.dice.dicewhere.building.IPDatabase;
+import technology.dice.dicewhere.building.LocationDictionary;
+import technology.dice.dicewhere.building.RangeIpDatabase;
 import technology.dice.dicewhere.lineprocessing.serializers.protobuf.IPInformationProto;
 
-public class NavigableMapIpDatabase implements IPDatabase {
+public class NavigableMapIpDatabase implements RangeIpDatabase {
   private final NavigableMap<IP, byte[]> db;
+  private final List<byte[]> locations;
   private final long size;
+  private final DB storage;
 
-  NavigableMapIpDatabase(NavigableMap<IP, byte[]> db) {
+  NavigableMapIpDatabase(NavigableMap<IP, byte[]> db, List<byte[]> locations, DB storage) {
     this.db = db;
+    this.storage = storage;
+    this.locations = locations;
     this.size = db.size();
   }
 
+  @Override
   public Optional<IpInformation> get(IP ip) {
     Map.Entry<IP, byte[]> ipEntry = db.floorEntry(ip);
     return Optional.ofNullable(ipEntry)
         .flatMap(
             entry -> {
               try {
-                IPInformationProto.IpInformationProto ipInformationProto =
-                    IPInformationProto.IpInformationProto.parseFrom(entry.getValue());
-                IpInformation ipInformation =
-                    IpInformation.builder()
-                        .withCountryCodeAlpha2(ipInformationProto.getCountryCodeAlpha2())
-                        .withCityGeonameId(ipInformationProto.getCityGeoNameId())
-                        .withCity(ipInformationProto.getCity())
-                        .withLeastSpecificDivision(ipInformationProto.getLeastSpecificDivision())
-                        .withMostSpecificDivision(ipInformationProto.getMostSpecificDivision())
-                        .withPostcode(ipInformationProto.getPostcode())
-                        .withStartOfRange(
-                            new IP(ipInformationProto.getStartOfRange().toByteArray()))
-                        .withEndOfRange(new IP(ipInformationProto.getEndOfRange().toByteArray()))
-                        .isVpn(ipInformationProto.getIsVpn())
-                        .withOriginalLine(
-                            "".equals(ipInformationProto.getOriginalLine())
-                                    || ipInformationProto.getOriginalLine() == null
-                                ? null
-                                : ipInformationProto.getOriginalLine())
-                        .build();
-
-                if (ip.isGreaterThan(ipInformation.getEndOfRange())) {
+                IPInformationProto.IpRangeProto range =
+                    IPInformationProto.IpRangeProto.parseFrom(entry.getValue());
+                IP endOfRange = new IP(range.getEndOfRange().toByteArray());
+                if (ip.isGreaterThan(endOfRange)) {
                   return Optional.empty();
                 }
 
-                return Optional.of(ipInformation);
+                return Optional.of(
+                    LocationDictionary.decode(locations.get(range.getLocationId()))
+                        .withStartOfRange(entry.getKey())
+                        .withEndOfRange(endOfRange)
+                        .withOriginalLine(
+                            "".equals(range.getOriginalLine()) ? null : range.getOriginalLine())
+                        .build());
 
               } catch (InvalidProtocolBufferException e) {
                 throw new RuntimeException(e);
@@ -64,7 +61,40 @@ public class NavigableMapIpDatabase implements IPDatabase {
             });
   }
 
+  /**
+   * Sorts the batch so that IPs falling in the same range are adjacent, and only searches the map
+   * again once an IP falls past the end of the range found for the previous one.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Optional<IpInformation>> getAll(List<IP> ips) {
+    Optional<IpInformation>[] results = new Optional[ips.size()];
+    Integer[] order = new Integer[ips.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparing(ips::get));
+    Optional<IpInformation> previous = Optional.empty();
+    for (Integer index : order) {
+      IP ip = ips.get(index);
+      if (!previous.isPresent() || ip.isGreaterThan(previous.get().getEndOfRange())) {
+        previous = get(ip);
+      }
+      results[index] = previous;
+    }
+    return Arrays.asList(results);
+  }
+
+  @Override
   public long size() {
     return size;
   }
+
+  /** Closes the MapDB database holding the ranges, deleting its file if it has one */
+  @Override
+  public void close() {
+    if (!storage.isClosed()) {
+      storage.close();
+    }
+  }
 }
@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+
+/**
+ * Range database for tight heaps. Ranges are grouped in blocks of {@value #BLOCK_SIZE}, and only
+ * the first start of each block is kept uncompressed, in a skip array that is binary searched.
+ * Within a block, each range is stored as varints: the distance from the previous start, the
+ * distance from its start to its end, and the id of its location. A lookup decodes a single block,
+ * once: its result is built from the bounds and location decoded while searching the block.
+ *
+ * <p>IPV6 halves are delta encoded only when the more significant half is unchanged. Otherwise the
+ * least significant half of a start is stored as is, and that of an end complemented, as they are
+ * typically all zeros and all ones respectively.
+ *
+ * <p>Range bounds accessed individually, as when this database is fused with others, decode the
+ * block up to the range, so such bulk work is slower than over {@link SortedArrayIpDatabase}.
+ */
+public class BlockCompressedIpDatabase extends SortedRangeIpDatabase {
+  static final int BLOCK_SIZE = 32;
+  private final int[] ipV4BlockStarts;
+  private final int[] ipV4BlockOffsets;
+  private final byte[] ipV4Data;
+  private final long[] ipV6BlockStartsHigh;
+  private final long[] ipV6BlockStartsLow;
+  private final int[] ipV6BlockOffsets;
+  private final byte[] ipV6Data;
+  private final byte[][] locations;
+  private final String[] originalLines;
+
+  private BlockCompressedIpDatabase(SortedArrayIpDatabase source, int materialisedCacheSize) {
+    super(source.ipV4Count(), source.ipV6Count(), materialisedCacheSize);
+    int ipV4Count = source.ipV4Count();
+    int ipV4Blocks = blocks(ipV4Count);
+    ipV4BlockStarts = new int[ipV4Blocks];
+    ipV4BlockOffsets = new int[ipV4Blocks];
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    for (int i = 0; i < ipV4Count; i++) {
+      int start = source.ipV4Starts[i];
+      if (i % BLOCK_SIZE == 0) {
+        ipV4BlockStarts[i / BLOCK_SIZE] = start;
+        ipV4BlockOffsets[i / BLOCK_SIZE] = data.size();
+      } else {
+        writeVarint(data, Integer.toUnsignedLong(start - source.ipV4Starts[i - 1]));
+      }
+      writeVarint(data, Integer.toUnsignedLong(source.ipV4End(i) - start));
+      writeVarint(data, source.locationIds[i]);
+    }
+    ipV4Data = data.toByteArray();
+
+    int ipV6Count = source.ipV6Count();
+    int ipV6Blocks = blocks(ipV6Count);
+    ipV6BlockStartsHigh = new long[ipV6Blocks];
+    ipV6BlockStartsLow = new long[ipV6Blocks];
+    ipV6BlockOffsets = new int[ipV6Blocks];
+    data = new ByteArrayOutputStream();
+    for (int i = 0; i < ipV6Count; i++) {
+      long startHigh = source.ipV6StartsHigh[i];
+      long startLow = source.ipV6StartLow(i);
+      if (i % BLOCK_SIZE == 0) {
+        ipV6BlockStartsHigh[i / BLOCK_SIZE] = startHigh;
+        ipV6BlockStartsLow[i / BLOCK_SIZE] = startLow;
+        ipV6BlockOffsets[i / BLOCK_SIZE] = data.size();
+      } else {
+        writeHalves(
+            data,
+            source.ipV6StartsHigh[i - 1],
+            source.ipV6StartLow(i - 1),
+            startHigh,
+            startLow,
+            false);
+      }
+      writeHalves(data, startHigh, startLow, source.ipV6EndHigh(i), source.ipV6EndLow(i), true);
+      writeVarint(data, source.locationIds[ipV4Count + i]);
+    }
+    ipV6Data = data.toByteArray();
+    locations = source.locations;
+    originalLines = source.originalLines;
+    buildCountryTable();
+  }
+
+  /**
+   * @param source the database to compress
+   * @param materialisedCacheSize how many lookup results to keep materialised. 0 disables it
+   * @return a compressed copy of the database
+   */
+  public static BlockCompressedIpDatabase of(
+      SortedArrayIpDatabase source, int materialisedCacheSize) {
+    if (materialisedCacheSize < 0) {
+      throw new IllegalArgumentException("The materialised cache size can't be negative");
+    }
+    return new BlockCompressedIpDatabase(source, materialisedCacheSize);
+  }
+
+  private static int blocks(int count) {
+    return (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+  }
+
+  /**
+   * Writes the second of two IPV6 addresses relative to the first. The more significant halves
+   * are delta encoded. The less significant ones are too if the more significant ones are equal,
+   * otherwise the second is written as is, complemented for ends.
+   */
+  private static void writeHalves(
+      ByteArrayOutputStream data,
+      long fromHigh,
+      long fromLow,
+      long toHigh,
+      long toLow,
+      boolean end) {
+    writeVarint(data, toHigh - fromHigh);
+    if (toHigh == fromHigh) {
+      writeVarint(data, toLow - fromLow);
+    } else {
+      writeVarint(data, end ? ~toLow : toLow);
+    }
+  }
+
+  private static void writeVarint(ByteArrayOutputStream data, long value) {
+    while ((value & ~0x7FL) != 0) {
+      data.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    data.write((int) value);
+  }
+
+  @Override
+  public Optional<IpInformation> get(IP ip) {
+    Cursor cursor = find(ip);
+    return cursor == null
+        ? Optional.empty()
+        : result(
+            cursor.range,
+            cursor.startHigh,
+            cursor.startLow,
+            cursor.endHigh,
+            cursor.endLow,
+            cursor.location);
+  }
+
+  @Override
+  public Optional<String> getCountry(IP ip) {
+    Cursor cursor = find(ip);
+    return cursor == null ? Optional.empty() : country(cursor.location);
+  }
+
+  @Override
+  int range(IP ip) {
+    Cursor cursor = find(ip);
+    return cursor == null ? -1 : cursor.range;
+  }
+
+  @Override
+  public List<Optional<IpInformation>> getAll(List<IP> ips) {
+    List<Optional<IpInformation>> results = new ArrayList<>(ips.size());
+    for (IP ip : ips) {
+      results.add(get(ip));
+    }
+    return results;
+  }
+
+  /** @return a cursor holding the range containing the IP, or null if none does */
+  private Cursor find(IP ip) {
+    int length = ip.getLength();
+    if (length == 4) {
+      return findIpV4((int) ip.getLow());
+    } else if (length == 16) {
+      return findIpV6(ip.getHigh(), ip.getLow());
+    }
+    return null;
+  }
+
+  private Cursor findIpV4(int ip) {
+    int block = floorBlockIpV4(ip);
+    if (block < 0) {
+      return null;
+    }
+    Cursor cursor = new Cursor(ipV4Data, ipV4BlockOffsets[block]);
+    int first = block * BLOCK_SIZE;
+    int count = Math.min(BLOCK_SIZE, ipV4Count() - first);
+    long key = Integer.toUnsignedLong(ip);
+    long start = Integer.toUnsignedLong(ipV4BlockStarts[block]);
+    cursor.readIpV4(first, start);
+    for (int i = 1; i < count; i++) {
+      start += cursor.next();
+      if (start > key) {
+        break;
+      }
+      cursor.readIpV4(first + i, start);
+    }
+    return key > cursor.endLow ? null : cursor;
+  }
+
+  private Cursor findIpV6(long ipHigh, long ipLow) {
+    int block = floorBlockIpV6(ipHigh, ipLow);
+    if (block < 0) {
+      return null;
+    }
+    Cursor cursor = new Cursor(ipV6Data, ipV6BlockOffsets[block]);
+    int first = ipV4Count() + block * BLOCK_SIZE;
+    int count = Math.min(BLOCK_SIZE, ipV6Count() - block * BLOCK_SIZE);
+    long startHigh = ipV6BlockStartsHigh[block];
+    long startLow = ipV6BlockStartsLow[block];
+    cursor.readIpV6(first, startHigh, startLow);
+    for (int i = 1; i < count; i++) {
+      long highDelta = cursor.next();
+      startHigh += highDelta;
+      startLow = highDelta == 0 ? startLow + cursor.next() : cursor.next();
+      if (compare(startHigh, startLow, ipHigh, ipLow) > 0) {
+        break;
+      }
+      cursor.readIpV6(first + i, startHigh, startLow);
+    }
+    return compare(ipHigh, ipLow, cursor.endHigh, cursor.endLow) > 0 ? null : cursor;
+  }
+
+  private int floorBlockIpV4(int ip) {
+    int low = 0;
+    int high = ipV4BlockStarts.length - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (Integer.compareUnsigned(ipV4BlockStarts[mid], ip) <= 0) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  private int floorBlockIpV6(long ipHigh, long ipLow) {
+    int low = 0;
+    int high = ipV6BlockStartsHigh.length - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (compare(ipV6BlockStartsHigh[mid], ipV6BlockStartsLow[mid], ipHigh, ipLow) <= 0) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  /** @return a cursor just past the IPV4 range, holding its bounds and location */
+  private Cursor seekIpV4(int index) {
+    int block = index / BLOCK_SIZE;
+    Cursor cursor = new Cursor(ipV4Data, ipV4BlockOffsets[block]);
+    long start = Integer.toUnsignedLong(ipV4BlockStarts[block]);
+    for (int i = block * BLOCK_SIZE; ; i++) {
+      if (i % BLOCK_SIZE != 0) {
+        start += cursor.next();
+      }
+      cursor.readIpV4(i, start);
+      if (i == index) {
+        return cursor;
+      }
+    }
+  }
+
+  /** @return a cursor just past the IPV6 range, holding its bounds and location */
+  private Cursor seekIpV6(int index) {
+    int block = index / BLOCK_SIZE;
+    Cursor cursor = new Cursor(ipV6Data, ipV6BlockOffsets[block]);
+    long startHigh = ipV6BlockStartsHigh[block];
+    long startLow = ipV6BlockStartsLow[block];
+    for (int i = block * BLOCK_SIZE; ; i++) {
+      if (i % BLOCK_SIZE != 0) {
+        long highDelta = cursor.next();
+        startHigh += highDelta;
+        startLow = highDelta == 0 ? startLow + cursor.next() : cursor.next();
+      }
+      cursor.readIpV6(ipV4Count() + i, startHigh, startLow);
+      if (i == index) {
+        return cursor;
+      }
+    }
+  }
+
+  @Override
+  int ipV4Start(int index) {
+    return (int) seekIpV4(index).startLow;
+  }
+
+  @Override
+  int ipV4End(int index) {
+    return (int) seekIpV4(index).endLow;
+  }
+
+  @Override
+  long ipV6StartHigh(int index) {
+    return seekIpV6(index).startHigh;
+  }
+
+  @Override
+  long ipV6StartLow(int index) {
+    return seekIpV6(index).startLow;
+  }
+
+  @Override
+  long ipV6EndHigh(int index) {
+    return seekIpV6(index).endHigh;
+  }
+
+  @Override
+  long ipV6EndLow(int index) {
+    return seekIpV6(index).endLow;
+  }
+
+  @Override
+  int locationId(int range) {
+    int ipV4Count = ipV4Count();
+    return (range < ipV4Count ? seekIpV4(range) : seekIpV6(range - ipV4Count)).location;
+  }
+
+  @Override
+  int locationCount() {
+    return locations.length;
+  }
+
+  @Override
+  byte[] locationById(int id) {
+    return locations[id];
+  }
+
+  @Override
+  String originalLine(int range) {
+    return originalLines == null ? null : originalLines[range];
+  }
+
+  /** @return the size of the encoded ranges and their skip arrays, excluding locations */
+  long encodedSize() {
+    return ipV4Data.length
+        + (long) ipV4BlockStarts.length * (Integer.BYTES + Integer.BYTES)
+        + ipV6Data.length
+        + (long) ipV6BlockStartsHigh.length * (Long.BYTES + Long.BYTES + Integer.BYTES);
+  }
+
+  /** Reads varints from a block, along with the fields of the last range decoded */
+  private static final class Cursor {
+    private final byte[] data;
+    private int position;
+    private int range;
+    private long startHigh;
+    private long startLow;
+    private long endHigh;
+    private long endLow;
+    private int location;
+
+    private Cursor(byte[] data, int position) {
+      this.data = data;
+      this.position = position;
+    }
+
+    private long next() {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data[position++];
+        value |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      return value;
+    }
+
+    /** Reads the end and location of an IPV4 range whose start is already decoded */
+    private void readIpV4(int range, long start) {
+      this.range = range;
+      startLow = start;
+      endLow = start + next();
+      location = (int) next();
+    }
+
+    /** Reads the end and location of an IPV6 range whose start is already decoded */
+    private void readIpV6(int range, long startHigh, long startLow) {
+      this.range = range;
+      this.startHigh = startHigh;
+      this.startLow = startLow;
+      long highDelta = next();
+      endHigh = startHigh + highDelta;
+      endLow = highDelta == 0 ? startLow + next() : ~next();
+      location = (int) next();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+/**
+ * Copy of the range starts of a database in Eytzinger order: a complete binary search tree stored
+ * breadth first, with the children of node {@code k} at {@code 2k} and {@code 2k + 1} (the root is
+ * at 1). The first levels of the tree, which every search visits, share a few cache lines, and a
+ * search walks down the tree without data dependent branches.
+ *
+ * <p>Keys have their sign bits flipped, so that the unsigned order of addresses is the signed order
+ * of the keys. Each node also holds the position of its key in sorted order, which is the range it
+ * starts.
+ */
+final class EytzingerIndex {
+  private final int[] ipV4Keys;
+  private final int[] ipV4Ranges;
+  private final long[] ipV6KeysHigh;
+  private final long[] ipV6KeysLow;
+  private final int[] ipV6Ranges;
+
+  private EytzingerIndex(SortedRangeIpDatabase database) {
+    int ipV4Count = database.ipV4Count();
+    ipV4Keys = new int[ipV4Count + 1];
+    ipV4Ranges = new int[ipV4Count + 1];
+    int ipV6Count = database.ipV6Count();
+    ipV6KeysHigh = new long[ipV6Count + 1];
+    ipV6KeysLow = new long[ipV6Count + 1];
+    ipV6Ranges = new int[ipV6Count + 1];
+    fill(ipV4Ranges, 1, 0);
+    fill(ipV6Ranges, 1, 0);
+    for (int k = 1; k <= ipV4Count; k++) {
+      ipV4Keys[k] = database.ipV4Start(ipV4Ranges[k]) ^ Integer.MIN_VALUE;
+    }
+    for (int k = 1; k <= ipV6Count; k++) {
+      ipV6KeysHigh[k] = database.ipV6StartHigh(ipV6Ranges[k]) ^ Long.MIN_VALUE;
+      ipV6KeysLow[k] = database.ipV6StartLow(ipV6Ranges[k]) ^ Long.MIN_VALUE;
+    }
+  }
+
+  static EytzingerIndex of(SortedRangeIpDatabase database) {
+    return new EytzingerIndex(database);
+  }
+
+  /**
+   * Walks the subtree rooted at {@code k} in order, assigning consecutive sorted positions
+   *
+   * @return the next sorted position to assign
+   */
+  private static int fill(int[] ranges, int k, int next) {
+    if (k < ranges.length) {
+      next = fill(ranges, 2 * k, next);
+      ranges[k] = next++;
+      next = fill(ranges, 2 * k + 1, next);
+    }
+    return next;
+  }
+
+  /** @return the last range starting at or before the IP, or -1 if there is none */
+  int floorIpV4(int ip) {
+    int key = ip ^ Integer.MIN_VALUE;
+    int n = ipV4Keys.length - 1;
+    int k = 1;
+    while (k <= n) {
+      k = 2 * k + (ipV4Keys[k] <= key ? 1 : 0);
+    }
+    // undo the trailing right turns and the final left one, leaving the first start after the IP
+    k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+    return k == 0 ? n - 1 : ipV4Ranges[k] - 1;
+  }
+
+  /** @return the last range starting at or before the IP, or -1 if there is none */
+  int floorIpV6(long ipHigh, long ipLow) {
+    long keyHigh = ipHigh ^ Long.MIN_VALUE;
+    long keyLow = ipLow ^ Long.MIN_VALUE;
+    int n = ipV6KeysHigh.length - 1;
+    int k = 1;
+    while (k <= n) {
+      long high = ipV6KeysHigh[k];
+      k = 2 * k + ((high < keyHigh | (high == keyHigh & ipV6KeysLow[k] <= keyLow)) ? 1 : 0);
+    }
+    k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+    return k == 0 ? n - 1 : ipV6Ranges[k] - 1;
+  }
+}
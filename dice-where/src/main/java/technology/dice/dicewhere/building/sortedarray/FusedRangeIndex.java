@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.building.IPDatabase;
+import technology.dice.dicewhere.provider.ProviderKey;
+
+/**
+ * Single index over the ranges of several providers. The range bounds of every provider are merged
+ * into one sorted sequence of elementary intervals, within which no provider's coverage changes,
+ * and each interval holds the range each provider has for it. Resolving an IP against all the
+ * providers then costs one binary search plus one array read per provider.
+ *
+ * <p>Every provider must be stored as sorted arrays, either built in {@link
+ * technology.dice.dicewhere.building.navigablemap.MapDbDatabaseBuilder.StorageMode#SORTED_ARRAY}
+ * mode or mapped from a snapshot.
+ */
+public final class FusedRangeIndex {
+  private final ProviderKey[] providers;
+  private final SortedRangeIpDatabase[] databases;
+  private final int[] ipV4Starts;
+  private final int[] ipV4Ranges;
+  private final long[] ipV6StartsHigh;
+  private final long[] ipV6StartsLow;
+  private final int[] ipV6Ranges;
+
+  private FusedRangeIndex(ProviderKey[] providers, SortedRangeIpDatabase[] databases) {
+    this.providers = providers;
+    this.databases = databases;
+    Intervals ipV4 = new Intervals(databases, false);
+    this.ipV4Starts = new int[ipV4.count];
+    for (int i = 0; i < ipV4.count; i++) {
+      ipV4Starts[i] = (int) ipV4.startsLow[i];
+    }
+    this.ipV4Ranges = ipV4.ranges;
+    Intervals ipV6 = new Intervals(databases, true);
+    this.ipV6StartsHigh = Arrays.copyOf(ipV6.startsHigh, ipV6.count);
+    this.ipV6StartsLow = Arrays.copyOf(ipV6.startsLow, ipV6.count);
+    this.ipV6Ranges = ipV6.ranges;
+  }
+
+  /**
+   * @param databases the databases to index, by provider
+   * @return the index over all the databases
+   * @throws IllegalArgumentException if any of the databases isn't stored as sorted arrays
+   */
+  public static FusedRangeIndex of(Map<ProviderKey, ? extends IPDatabase> databases) {
+    ProviderKey[] providers = new ProviderKey[databases.size()];
+    SortedRangeIpDatabase[] sorted = new SortedRangeIpDatabase[databases.size()];
+    int i = 0;
+    for (Map.Entry<ProviderKey, ? extends IPDatabase> entry : databases.entrySet()) {
+      if (!(entry.getValue() instanceof SortedRangeIpDatabase)) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Provider %s must be stored as sorted arrays to be fused",
+                entry.getKey().name()));
+      }
+      providers[i] = entry.getKey();
+      sorted[i++] = (SortedRangeIpDatabase) entry.getValue();
+    }
+    return new FusedRangeIndex(providers, sorted);
+  }
+
+  /**
+   * @param ip the IP to resolve
+   * @return the resolution of the IP by every provider. The map is immutable
+   */
+  @SuppressWarnings("unchecked")
+  public Map<ProviderKey, Optional<IpInformation>> resolve(IP ip) {
+    Optional<IpInformation>[] results = new Optional[providers.length];
+    int length = ip.getLength();
+    int interval = -1;
+    int[] ranges = ipV4Ranges;
+    if (length == 4) {
+      interval = floorIpV4((int) ip.getLow());
+    } else if (length == 16) {
+      interval = floorIpV6(ip.getHigh(), ip.getLow());
+      ranges = ipV6Ranges;
+    }
+    for (int provider = 0; provider < providers.length; provider++) {
+      int range = interval < 0 ? -1 : ranges[interval * providers.length + provider];
+      results[provider] = range < 0 ? Optional.empty() : databases[provider].result(range);
+    }
+    return new ProviderResults(providers, results);
+  }
+
+  private int floorIpV4(int ip) {
+    int low = 0;
+    int high = ipV4Starts.length - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (Integer.compareUnsigned(ipV4Starts[mid], ip) <= 0) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  private int floorIpV6(long ipHigh, long ipLow) {
+    int low = 0;
+    int high = ipV6StartsHigh.length - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (SortedRangeIpDatabase.compare(ipV6StartsHigh[mid], ipV6StartsLow[mid], ipHigh, ipLow)
+          <= 0) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * The elementary intervals of one address family. IPV4 bounds are widened to the same pair of
+   * unsigned longs as IPV6 bounds while building.
+   */
+  private static final class Intervals {
+    private final SortedRangeIpDatabase[] databases;
+    private final boolean ipV6;
+    private long[] startsHigh;
+    private long[] startsLow;
+    private int[] ranges;
+    private int count;
+
+    private Intervals(SortedRangeIpDatabase[] databases, boolean ipV6) {
+      this.databases = databases;
+      this.ipV6 = ipV6;
+      int capacity = 0;
+      for (SortedRangeIpDatabase database : databases) {
+        capacity += 2 * count(database);
+      }
+      startsHigh = new long[capacity];
+      startsLow = new long[capacity];
+      mergeBounds();
+      assignRanges();
+    }
+
+    /** Merges the starts and the ends + 1 of every provider, which are all already sorted */
+    private void mergeBounds() {
+      int[] nextStart = new int[databases.length];
+      int[] nextEnd = new int[databases.length];
+      while (true) {
+        boolean found = false;
+        long minHigh = 0;
+        long minLow = 0;
+        for (int p = 0; p < databases.length; p++) {
+          SortedRangeIpDatabase database = databases[p];
+          if (nextStart[p] < count(database)) {
+            long high = startHigh(database, nextStart[p]);
+            long low = startLow(database, nextStart[p]);
+            if (!found || SortedRangeIpDatabase.compare(high, low, minHigh, minLow) < 0) {
+              found = true;
+              minHigh = high;
+              minLow = low;
+            }
+          }
+          if (nextEnd[p] < count(database)) {
+            if (isLast(endHigh(database, nextEnd[p]), endLow(database, nextEnd[p]))) {
+              // the range runs to the end of the address space, so nothing follows it
+              nextEnd[p]++;
+            } else {
+              long high = afterEndHigh(database, nextEnd[p]);
+              long low = afterEndLow(database, nextEnd[p]);
+              if (!found || SortedRangeIpDatabase.compare(high, low, minHigh, minLow) < 0) {
+                found = true;
+                minHigh = high;
+                minLow = low;
+              }
+            }
+          }
+        }
+        if (!found) {
+          return;
+        }
+        startsHigh[count] = minHigh;
+        startsLow[count] = minLow;
+        count++;
+        for (int p = 0; p < databases.length; p++) {
+          SortedRangeIpDatabase database = databases[p];
+          if (nextStart[p] < count(database)
+              && startHigh(database, nextStart[p]) == minHigh
+              && startLow(database, nextStart[p]) == minLow) {
+            nextStart[p]++;
+          }
+          if (nextEnd[p] < count(database)
+              && afterEndHigh(database, nextEnd[p]) == minHigh
+              && afterEndLow(database, nextEnd[p]) == minLow) {
+            nextEnd[p]++;
+          }
+        }
+      }
+    }
+
+    /** Finds, for each interval, the range of each provider covering it, if any */
+    private void assignRanges() {
+      ranges = new int[count * databases.length];
+      int[] floor = new int[databases.length];
+      Arrays.fill(floor, -1);
+      for (int i = 0; i < count; i++) {
+        for (int p = 0; p < databases.length; p++) {
+          SortedRangeIpDatabase database = databases[p];
+          while (floor[p] + 1 < count(database)
+              && SortedRangeIpDatabase.compare(
+                      startHigh(database, floor[p] + 1),
+                      startLow(database, floor[p] + 1),
+                      startsHigh[i],
+                      startsLow[i])
+                  <= 0) {
+            floor[p]++;
+          }
+          boolean covered =
+              floor[p] >= 0
+                  && SortedRangeIpDatabase.compare(
+                          startsHigh[i],
+                          startsLow[i],
+                          endHigh(database, floor[p]),
+                          endLow(database, floor[p]))
+                      <= 0;
+          ranges[i * databases.length + p] =
+              covered ? (ipV6 ? database.ipV4Count() : 0) + floor[p] : -1;
+        }
+      }
+    }
+
+    private long afterEndHigh(SortedRangeIpDatabase database, int index) {
+      long high = endHigh(database, index);
+      return endLow(database, index) == -1 ? high + 1 : high;
+    }
+
+    private long afterEndLow(SortedRangeIpDatabase database, int index) {
+      return endLow(database, index) + 1;
+    }
+
+    private boolean isLast(long high, long low) {
+      return ipV6 ? high == -1 && low == -1 : low == 0xFFFFFFFFL;
+    }
+
+    private int count(SortedRangeIpDatabase database) {
+      return ipV6 ? database.ipV6Count() : database.ipV4Count();
+    }
+
+    private long startHigh(SortedRangeIpDatabase database, int index) {
+      return ipV6 ? database.ipV6StartHigh(index) : 0;
+    }
+
+    private long startLow(SortedRangeIpDatabase database, int index) {
+      return ipV6
+          ? database.ipV6StartLow(index)
+          : Integer.toUnsignedLong(database.ipV4Start(index));
+    }
+
+    private long endHigh(SortedRangeIpDatabase database, int index) {
+      return ipV6 ? database.ipV6EndHigh(index) : 0;
+    }
+
+    private long endLow(SortedRangeIpDatabase database, int index) {
+      return ipV6 ? database.ipV6EndLow(index) : Integer.toUnsignedLong(database.ipV4End(index));
+    }
+  }
+
+  /** Immutable map view over the per provider results of a single resolution */
+  private static final class ProviderResults
+      extends AbstractMap<ProviderKey, Optional<IpInformation>> {
+    private final ProviderKey[] providers;
+    private final Optional<IpInformation>[] results;
+
+    private ProviderResults(ProviderKey[] providers, Optional<IpInformation>[] results) {
+      this.providers = providers;
+      this.results = results;
+    }
+
+    @Override
+    public Optional<IpInformation> get(Object key) {
+      for (int i = 0; i < providers.length; i++) {
+        if (providers[i].equals(key)) {
+          return results[i];
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+      return providers.length;
+    }
+
+    @Override
+    public Set<Entry<ProviderKey, Optional<IpInformation>>> entrySet() {
+      return new AbstractSet<Entry<ProviderKey, Optional<IpInformation>>>() {
+        @Override
+        public Iterator<Entry<ProviderKey, Optional<IpInformation>>> iterator() {
+          return new Iterator<Entry<ProviderKey, Optional<IpInformation>>>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+              return next < providers.length;
+            }
+
+            @Override
+            public Entry<ProviderKey, Optional<IpInformation>> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              Entry<ProviderKey, Optional<IpInformation>> entry =
+                  new SimpleImmutableEntry<>(providers[next], results[next]);
+              next++;
+              return entry;
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return providers.length;
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import technology.dice.dicewhere.building.DatabaseBuilderListener;
+import technology.dice.dicewhere.lineprocessing.LineProcessorListener;
+import technology.dice.dicewhere.provider.ProviderKey;
+import technology.dice.dicewhere.reading.LineReaderListener;
+import technology.dice.dicewhere.reading.SourceReader;
+
+/**
+ * Serves lookups straight from a memory mapped snapshot written by {@link
+ * SortedArrayIpDatabase#writeSnapshot(ProviderKey, Path)}. With the {@link SearchLayout#SORTED}
+ * layout, opening a snapshot only validates its header and offsets: the IPV4 jump table is read
+ * from the snapshot in place, nothing is scanned or copied to the heap, and the pages are shared
+ * through the OS page cache with every other process mapping the same file. Other layouts are
+ * built on the heap from every range start when opening. So is the table of countries, on the
+ * first country lookup, as it decodes every location.
+ *
+ * <p>Closing the database unmaps the snapshot straight away, rather than once the buffer is
+ * garbage collected.
+ *
+ * <p>As with {@link technology.dice.dicewhere.building.mmdb.MmdbDatabase}, the database is its own
+ * {@link SourceReader}, so it can be handed to the {@link
+ * technology.dice.dicewhere.api.api.IPResolver.Builder} as any other provider.
+ */
+public class MappedSnapshotIpDatabase extends SortedRangeIpDatabase implements SourceReader {
+  private final ProviderKey provider;
+  private ByteBuffer buffer;
+  private final int ipV4StartsOffset;
+  private final int ipV4EndsOffset;
+  private final int ipV4JumpTableOffset;
+  private final int ipV6StartsHighOffset;
+  private final int ipV6StartsLowOffset;
+  private final int ipV6EndsHighOffset;
+  private final int ipV6EndsLowOffset;
+  private final int locationIdsOffset;
+  private final int locationOffsetsOffset;
+  private final int locationsOffset;
+  private final int lineOffsetsOffset;
+  private final int linesOffset;
+
+  private MappedSnapshotIpDatabase(
+      ByteBuffer buffer,
+      Path path,
+      int headerLength,
+      int materialisedCacheSize,
+      SearchLayout searchLayout) {
+    super(buffer.getInt(headerLength), buffer.getInt(headerLength + 4), materialisedCacheSize);
+    this.buffer = buffer;
+    byte[] name = new byte[headerLength - 16];
+    for (int i = 0; i < name.length; i++) {
+      name[i] = buffer.get(16 + i);
+    }
+    this.provider = new ProviderKey(new String(name, StandardCharsets.UTF_8)) {};
+
+    int ipV4Count = buffer.getInt(headerLength);
+    int ipV6Count = buffer.getInt(headerLength + 4);
+    int locationCount = buffer.getInt(headerLength + 8);
+    int rangeCount = ipV4Count + ipV6Count;
+
+    this.ipV4StartsOffset = headerLength + 12;
+    this.ipV4EndsOffset = ipV4StartsOffset + ipV4Count * Integer.BYTES;
+    this.ipV4JumpTableOffset = ipV4EndsOffset + ipV4Count * Integer.BYTES;
+    this.ipV6StartsHighOffset = ipV4JumpTableOffset + IPV4_JUMP_TABLE_LENGTH * Integer.BYTES;
+    this.ipV6StartsLowOffset = ipV6StartsHighOffset + ipV6Count * Long.BYTES;
+    this.ipV6EndsHighOffset = ipV6StartsLowOffset + ipV6Count * Long.BYTES;
+    this.ipV6EndsLowOffset = ipV6EndsHighOffset + ipV6Count * Long.BYTES;
+    this.locationIdsOffset = ipV6EndsLowOffset + ipV6Count * Long.BYTES;
+    this.locationOffsetsOffset = locationIdsOffset + rangeCount * Integer.BYTES;
+    this.locationsOffset = locationOffsetsOffset + (locationCount + 1) * Integer.BYTES;
+    int end = locationsOffset + buffer.getInt(locationsOffset - Integer.BYTES);
+    if ((buffer.getInt(8) & SortedArraySnapshot.FLAG_ORIGINAL_LINES) != 0) {
+      this.lineOffsetsOffset = end;
+      this.linesOffset = lineOffsetsOffset + (rangeCount + 1) * Integer.BYTES;
+      end = linesOffset + buffer.getInt(linesOffset - Integer.BYTES);
+    } else {
+      this.lineOffsetsOffset = -1;
+      this.linesOffset = -1;
+    }
+    if (end != buffer.limit()) {
+      throw new IllegalArgumentException("Snapshot " + path + " is truncated or corrupted");
+    }
+    useSearchLayout(searchLayout);
+  }
+
+  /** @return the length of the header up to the counts, once its magic and version are checked */
+  private static int headerLength(ByteBuffer buffer, Path path) {
+    if (buffer.limit() < 16 || buffer.getInt(0) != SortedArraySnapshot.MAGIC) {
+      throw new IllegalArgumentException(path + " is not a snapshot");
+    }
+    int version = buffer.getInt(4);
+    if (version != SortedArraySnapshot.VERSION) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Snapshot %s has version %d, expected %d",
+              path, version, SortedArraySnapshot.VERSION));
+    }
+    int nameLength = buffer.getInt(12);
+    if (nameLength < 0 || nameLength > buffer.limit()) {
+      throw new IllegalArgumentException("Snapshot " + path + " is truncated or corrupted");
+    }
+    return 16 + nameLength;
+  }
+
+  /**
+   * Maps a snapshot without a cache of materialised lookup results
+   *
+   * @param path the snapshot to map
+   * @return the database, registered under the provider the snapshot was written for
+   * @throws IOException if the file can't be mapped
+   * @throws IllegalArgumentException if the file is not a snapshot of the supported version
+   */
+  public static MappedSnapshotIpDatabase open(Path path) throws IOException {
+    return open(path, SortedArrayDatabaseBuilder.DEFAULT_MATERIALISED_CACHE_SIZE);
+  }
+
+  /**
+   * @param path the snapshot to map
+   * @param materialisedCacheSize how many lookup results to keep materialised. 0 disables it
+   * @return the database, registered under the provider the snapshot was written for
+   * @throws IOException if the file can't be mapped
+   * @throws IllegalArgumentException if the file is not a snapshot of the supported version
+   */
+  public static MappedSnapshotIpDatabase open(Path path, int materialisedCacheSize)
+      throws IOException {
+    return open(path, materialisedCacheSize, SearchLayout.SORTED);
+  }
+
+  /**
+   * @param path the snapshot to map
+   * @param materialisedCacheSize how many lookup results to keep materialised. 0 disables it
+   * @param searchLayout how to lay out the range starts for single lookups. Anything other than
+   *     {@link SearchLayout#SORTED} is built on the heap when opening
+   * @return the database, registered under the provider the snapshot was written for
+   * @throws IOException if the file can't be mapped
+   * @throws IllegalArgumentException if the file is not a snapshot of the supported version
+   */
+  public static MappedSnapshotIpDatabase open(
+      Path path, int materialisedCacheSize, SearchLayout searchLayout) throws IOException {
+    Objects.requireNonNull(searchLayout);
+    if (materialisedCacheSize < 0) {
+      throw new IllegalArgumentException("The materialised cache size can't be negative");
+    }
+    // the mapping stays valid once the channel is closed
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Snapshot " + path + " is too large to be mapped");
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new MappedSnapshotIpDatabase(
+          buffer, path, headerLength(buffer, path), materialisedCacheSize, searchLayout);
+    } catch (IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Snapshot " + path + " is truncated or corrupted", e);
+    }
+  }
+
+  @Override
+  IntBuffer ipV4JumpTable() {
+    ByteBuffer table = buffer.duplicate();
+    table.position(ipV4JumpTableOffset);
+    table.limit(ipV4JumpTableOffset + IPV4_JUMP_TABLE_LENGTH * Integer.BYTES);
+    return table.slice().asIntBuffer();
+  }
+
+  @Override
+  boolean coversWholeSlash64s() {
+    return (buffer.getInt(8) & SortedArraySnapshot.FLAG_IPV6_SLASH64) != 0;
+  }
+
+  @Override
+  int locationId(int range) {
+    return buffer.getInt(locationIdsOffset + range * Integer.BYTES);
+  }
+
+  @Override
+  int locationCount() {
+    return (locationsOffset - locationOffsetsOffset) / Integer.BYTES - 1;
+  }
+
+  @Override
+  byte[] locationById(int id) {
+    return blob(locationOffsetsOffset, locationsOffset, id);
+  }
+
+  @Override
+  String originalLine(int range) {
+    if (linesOffset < 0) {
+      return null;
+    }
+    byte[] line = blob(lineOffsetsOffset, linesOffset, range);
+    return line.length == 0 ? null : new String(line, StandardCharsets.UTF_8);
+  }
+
+  private byte[] blob(int offsetsOffset, int dataOffset, int index) {
+    int from = buffer.getInt(offsetsOffset + index * Integer.BYTES);
+    int to = buffer.getInt(offsetsOffset + (index + 1) * Integer.BYTES);
+    byte[] blob = new byte[to - from];
+    for (int i = 0; i < blob.length; i++) {
+      blob[i] = buffer.get(dataOffset + from + i);
+    }
+    return blob;
+  }
+
+  @Override
+  int ipV4Start(int index) {
+    return buffer.getInt(ipV4StartsOffset + index * Integer.BYTES);
+  }
+
+  @Override
+  int ipV4End(int index) {
+    return buffer.getInt(ipV4EndsOffset + index * Integer.BYTES);
+  }
+
+  @Override
+  long ipV6StartHigh(int index) {
+    return buffer.getLong(ipV6StartsHighOffset + index * Long.BYTES);
+  }
+
+  @Override
+  long ipV6StartLow(int index) {
+    return buffer.getLong(ipV6StartsLowOffset + index * Long.BYTES);
+  }
+
+  @Override
+  long ipV6EndHigh(int index) {
+    return buffer.getLong(ipV6EndsHighOffset + index * Long.BYTES);
+  }
+
+  @Override
+  long ipV6EndLow(int index) {
+    return buffer.getLong(ipV6EndsLowOffset + index * Long.BYTES);
+  }
+
+  @Override
+  public MappedSnapshotIpDatabase read(
+      boolean retainOriginalLine,
+      LineReaderListener readerListener,
+      LineProcessorListener processListener,
+      DatabaseBuilderListener buildingListener,
+      int workersCount) {
+    return this;
+  }
+
+  @Override
+  public ProviderKey provider() {
+    return provider;
+  }
+
+  /** Unmaps the snapshot, leaving it to the garbage collector if the JVM doesn't allow it */
+  @Override
+  public synchronized void close() {
+    ByteBuffer mapped = buffer;
+    if (mapped == null) {
+      return;
+    }
+    buffer = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      invokeCleaner.invoke(theUnsafe.get(null), mapped);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // the mapping goes once the buffer is collected
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import java.util.Optional;
+import technology.dice.dicewhere.api.api.IpInformation;
+
+/**
+ * Bounded cache of materialised lookup results, keyed by range index. Slots are direct mapped, so
+ * caching a range evicts whichever range previously shared its slot.
+ *
+ * <p>Reads and writes are plain array accesses: entries only have final fields, so a reader either
+ * sees a fully built entry or a stale one, and racing writers can at worst materialise the same
+ * result twice. A cache hit allocates nothing, as the cached {@link Optional} itself is returned.
+ */
+final class MaterialisedRangeCache {
+  private final Entry[] slots;
+  private final int mask;
+
+  /** @param size the number of slots, rounded up to the next power of two */
+  MaterialisedRangeCache(int size) {
+    int slotCount = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+    this.slots = new Entry[slotCount];
+    this.mask = slotCount - 1;
+  }
+
+  /** @return the cached result for the range, or null if it is not cached */
+  Optional<IpInformation> get(int range) {
+    Entry entry = slots[range & mask];
+    return entry != null && entry.range == range ? entry.result : null;
+  }
+
+  void put(int range, Optional<IpInformation> result) {
+    slots[range & mask] = new Entry(range, result);
+  }
+
+  private static final class Entry {
+    private final int range;
+    private final Optional<IpInformation> result;
+
+    private Entry(int range, Optional<IpInformation> result) {
+      this.range = range;
+      this.result = result;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Immutable bit set that also counts, in constant time, the bits set before any position. Next to
+ * the bits it keeps one {@code int} per 64 bits, holding the count up to that word.
+ */
+final class RankedBitSet {
+  private final long[] words;
+  private final int[] ranks;
+
+  private RankedBitSet(long[] words) {
+    this.words = words;
+    this.ranks = new int[words.length];
+    int rank = 0;
+    for (int i = 0; i < words.length; i++) {
+      ranks[i] = rank;
+      rank += Long.bitCount(words[i]);
+    }
+  }
+
+  /**
+   * @param bits the bits to copy
+   * @param size how many bits the set covers
+   */
+  static RankedBitSet of(BitSet bits, int size) {
+    return new RankedBitSet(Arrays.copyOf(bits.toLongArray(), (size + Long.SIZE - 1) / Long.SIZE));
+  }
+
+  boolean get(int index) {
+    return (words[index >>> 6] & (1L << index)) != 0;
+  }
+
+  /** @return how many bits are set before the index */
+  int rank(int index) {
+    return ranks[index >>> 6] + Long.bitCount(words[index >>> 6] & ((1L << index) - 1));
+  }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+/** How the range starts of a sorted array database are laid out for single IP lookups */
+public enum SearchLayout {
+  /**
+   * Binary search over the range starts in sorted order, narrowed by a jump table over the top 16
+   * bits for IPV4
+   */
+  SORTED,
+  /**
+   * Search over a copy of the range starts in Eytzinger (breadth first) order, where the
+   * candidates of the next few steps of a search sit next to each other in memory. The search loop
+   * has no data dependent branches. Costs an extra 8 bytes per IPV4 range and 20 bytes per IPV6
+   * range, and pays off on databases too large for the CPU caches
+   */
+  EYTZINGER
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.api.exceptions.DatabaseOutOfOrderException;
+import technology.dice.dicewhere.building.DatabaseBuilder;
+import technology.dice.dicewhere.building.DatabaseBuilderListener;
+import technology.dice.dicewhere.building.LocationDictionary;
+import technology.dice.dicewhere.decorator.Decorator;
+import technology.dice.dicewhere.decorator.DecoratorInformation;
+import technology.dice.dicewhere.lineprocessing.SerializedLine;
+import technology.dice.dicewhere.provider.ProviderKey;
+
+/**
+ * Builds a {@link SortedArrayIpDatabase}. Range bounds are accumulated in primitive arrays, IPV4
+ * as {@code int}s and IPV6 as pairs of {@code long}s, while locations are stored once in a {@link
+ * LocationDictionary} and referenced by id.
+ *
+ * <p>Lookup results are materialised on every lookup by default. Keeping them in a cache of
+ * materialised results is opt in, see {@link
+ * technology.dice.dicewhere.reading.CSVLineReader#withMaterialisedCacheSize(int)}.
+ */
+public class SortedArrayDatabaseBuilder extends DatabaseBuilder<SortedArrayIpDatabase> {
+  public static final int DEFAULT_MATERIALISED_CACHE_SIZE = 0;
+  private static final int INITIAL_CAPACITY = 1024;
+  private final int materialisedCacheSize;
+  private final SearchLayout searchLayout;
+  private final LocationDictionary locations = new LocationDictionary();
+  private final List<String> originalLines = new ArrayList<>();
+  private boolean retainsOriginalLines = false;
+  private int[] ipV4Starts = new int[INITIAL_CAPACITY];
+  private int[] ipV4Ends = new int[INITIAL_CAPACITY];
+  private int ipV4Count = 0;
+  private long[] ipV6StartsHigh = new long[INITIAL_CAPACITY];
+  private long[] ipV6StartsLow = new long[INITIAL_CAPACITY];
+  private long[] ipV6EndsHigh = new long[INITIAL_CAPACITY];
+  private long[] ipV6EndsLow = new long[INITIAL_CAPACITY];
+  private int ipV6Count = 0;
+  private int[] locationIds = new int[INITIAL_CAPACITY];
+  private int rangeCount = 0;
+  private IP lastStart;
+
+  public SortedArrayDatabaseBuilder(
+      ProviderKey provider,
+      BlockingQueue<SerializedLine> source,
+      DatabaseBuilderListener listener) {
+    this(provider, source, listener, null);
+  }
+
+  public SortedArrayDatabaseBuilder(
+      ProviderKey provider,
+      BlockingQueue<SerializedLine> source,
+      DatabaseBuilderListener listener,
+      Decorator<? extends DecoratorInformation> decorator) {
+    this(provider, source, listener, decorator, DEFAULT_MATERIALISED_CACHE_SIZE);
+  }
+
+  /**
+   * @param materialisedCacheSize how many lookup results to keep materialised, so that repeated
+   *     lookups of the same range return a shared instance instead of allocating a new one. 0
+   *     disables the cache
+   */
+  public SortedArrayDatabaseBuilder(
+      ProviderKey provider,
+      BlockingQueue<SerializedLine> source,
+      DatabaseBuilderListener listener,
+      Decorator<? extends DecoratorInformation> decorator,
+      int materialisedCacheSize) {
+    this(provider, source, listener, decorator, materialisedCacheSize, SearchLayout.SORTED);
+  }
+
+  /**
+   * @param materialisedCacheSize how many lookup results to keep materialised, so that repeated
+   *     lookups of the same range return a shared instance instead of allocating a new one. 0
+   *     disables the cache
+   * @param searchLayout how to lay out the range starts for single lookups
+   */
+  public SortedArrayDatabaseBuilder(
+      ProviderKey provider,
+      BlockingQueue<SerializedLine> source,
+      DatabaseBuilderListener listener,
+      Decorator<? extends DecoratorInformation> decorator,
+      int materialisedCacheSize,
+      SearchLayout searchLayout) {
+    super(provider, source, listener, decorator);
+    if (materialisedCacheSize < 0) {
+      throw new IllegalArgumentException("The materialised cache size can't be negative");
+    }
+    this.materialisedCacheSize = materialisedCacheSize;
+    this.searchLayout = Objects.requireNonNull(searchLayout);
+  }
+
+  @Override
+  protected void add(IpInformation entry) {
+    IP start = entry.getStartOfRange();
+    int length = start.getLength();
+    if (length != 4 && length != 16) {
+      throw new IllegalArgumentException("Unsupported IP address length " + length);
+    }
+    if (lastStart != null && start.isLowerThanOrEqual(lastStart)) {
+      throw new DatabaseOutOfOrderException("Range does not start after the previous range");
+    }
+
+    if (length == 4) {
+      if (ipV4Count == ipV4Starts.length) {
+        ipV4Starts = Arrays.copyOf(ipV4Starts, ipV4Count * 2);
+        ipV4Ends = Arrays.copyOf(ipV4Ends, ipV4Count * 2);
+      }
+      ipV4Starts[ipV4Count] = (int) start.getLow();
+      ipV4Ends[ipV4Count] = (int) entry.getEndOfRange().getLow();
+      ipV4Count++;
+    } else {
+      if (ipV6Count == ipV6StartsHigh.length) {
+        ipV6StartsHigh = Arrays.copyOf(ipV6StartsHigh, ipV6Count * 2);
+        ipV6StartsLow = Arrays.copyOf(ipV6StartsLow, ipV6Count * 2);
+        ipV6EndsHigh = Arrays.copyOf(ipV6EndsHigh, ipV6Count * 2);
+        ipV6EndsLow = Arrays.copyOf(ipV6EndsLow, ipV6Count * 2);
+      }
+      IP end = entry.getEndOfRange();
+      ipV6StartsHigh[ipV6Count] = start.getHigh();
+      ipV6StartsLow[ipV6Count] = start.getLow();
+      ipV6EndsHigh[ipV6Count] = end.getHigh();
+      ipV6EndsLow[ipV6Count] = end.getLow();
+      ipV6Count++;
+    }
+
+    if (rangeCount == locationIds.length) {
+      locationIds = Arrays.copyOf(locationIds, rangeCount * 2);
+    }
+    locationIds[rangeCount++] = locations.locationId(entry);
+    originalLines.add(entry.getOriginalLine().orElse(null));
+    retainsOriginalLines |= entry.getOriginalLine().isPresent();
+    lastStart = start;
+  }
+
+  @Override
+  public SortedArrayIpDatabase build() {
+    return new SortedArrayIpDatabase(
+        Arrays.copyOf(ipV4Starts, ipV4Count),
+        Arrays.copyOf(ipV4Ends, ipV4Count),
+        Arrays.copyOf(ipV6StartsHigh, ipV6Count),
+        Arrays.copyOf(ipV6StartsLow, ipV6Count),
+        Arrays.copyOf(ipV6EndsHigh, ipV6Count),
+        Arrays.copyOf(ipV6EndsLow, ipV6Count),
+        Arrays.copyOf(locationIds, rangeCount),
+        locations.locations().toArray(new byte[0][]),
+        retainsOriginalLines ? originalLines.toArray(new String[0]) : null,
+        materialisedCacheSize,
+        searchLayout);
+  }
+}
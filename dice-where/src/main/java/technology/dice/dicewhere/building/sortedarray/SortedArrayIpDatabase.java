@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import technology.dice.dicewhere.provider.ProviderKey;
+
+/**
+ * Range database kept in plain arrays. IPV4 range bounds are stored as unsigned {@code int}s and
+ * IPV6 range bounds as pairs of unsigned {@code long}s (most and least significant halves) in
+ * parallel arrays. Both are looked up with a binary search, so no key has to be deserialised or
+ * compared byte by byte. Each range points, through a parallel array, to its location in a
+ * dictionary of distinct locations.
+ *
+ * <p>Range ends aren't stored: most ranges run up to the start of the next one, so their end is
+ * that start minus one, or the last address for the last range. The ranges that don't are marked
+ * in a bit set, and the first address of the uncovered space after each of them is stored as a gap
+ * sentinel, in range order. This saves 4 bytes per IPV4 range and 16 per IPV6 range, for 1 bit
+ * per range and a sentinel per gap.
+ *
+ * <p>When every IPV6 range covers whole /64s, the least significant halves of IPV6 starts and gap
+ * sentinels are all zeros, and aren't stored either, halving the memory taken by IPV6 keys.
+ */
+public class SortedArrayIpDatabase extends SortedRangeIpDatabase {
+  final int[] ipV4Starts;
+  private final RankedBitSet ipV4Gapped;
+  private final int[] ipV4GapStarts;
+  final long[] ipV6StartsHigh;
+  /** Null when every IPV6 range covers whole /64s */
+  private final long[] ipV6StartsLow;
+  private final RankedBitSet ipV6Gapped;
+  private final long[] ipV6GapStartsHigh;
+  /** Null when every IPV6 range covers whole /64s */
+  private final long[] ipV6GapStartsLow;
+  final int[] locationIds;
+  final byte[][] locations;
+  final String[] originalLines;
+
+  SortedArrayIpDatabase(
+      int[] ipV4Starts,
+      int[] ipV4Ends,
+      long[] ipV6StartsHigh,
+      long[] ipV6StartsLow,
+      long[] ipV6EndsHigh,
+      long[] ipV6EndsLow,
+      int[] locationIds,
+      byte[][] locations,
+      String[] originalLines,
+      int materialisedCacheSize,
+      SearchLayout searchLayout) {
+    super(ipV4Starts.length, ipV6StartsHigh.length, materialisedCacheSize);
+    this.ipV4Starts = ipV4Starts;
+    this.ipV6StartsHigh = ipV6StartsHigh;
+    boolean slash64 = true;
+    for (int i = 0; i < ipV6StartsHigh.length && slash64; i++) {
+      slash64 = ipV6StartsLow[i] == 0 && ipV6EndsLow[i] == -1;
+    }
+    this.ipV6StartsLow = slash64 ? null : ipV6StartsLow;
+
+    BitSet gapped = new BitSet(ipV4Starts.length);
+    int[] gapStarts = new int[ipV4Starts.length];
+    int gaps = 0;
+    for (int i = 0; i < ipV4Starts.length; i++) {
+      int implicitEnd = i + 1 < ipV4Starts.length ? ipV4Starts[i + 1] - 1 : -1;
+      if (ipV4Ends[i] != implicitEnd) {
+        gapped.set(i);
+        gapStarts[gaps++] = ipV4Ends[i] + 1;
+      }
+    }
+    this.ipV4Gapped = RankedBitSet.of(gapped, ipV4Starts.length);
+    this.ipV4GapStarts = Arrays.copyOf(gapStarts, gaps);
+
+    gapped = new BitSet(ipV6StartsHigh.length);
+    long[] gapStartsHigh = new long[ipV6StartsHigh.length];
+    long[] gapStartsLow = new long[ipV6StartsHigh.length];
+    gaps = 0;
+    for (int i = 0; i < ipV6StartsHigh.length; i++) {
+      boolean last = i + 1 == ipV6StartsHigh.length;
+      long implicitEndHigh = last ? -1 : beforeHigh(ipV6StartsHigh[i + 1], ipV6StartsLow[i + 1]);
+      long implicitEndLow = last ? -1 : ipV6StartsLow[i + 1] - 1;
+      if (ipV6EndsHigh[i] != implicitEndHigh || ipV6EndsLow[i] != implicitEndLow) {
+        gapped.set(i);
+        gapStartsHigh[gaps] = ipV6EndsLow[i] == -1 ? ipV6EndsHigh[i] + 1 : ipV6EndsHigh[i];
+        gapStartsLow[gaps] = ipV6EndsLow[i] + 1;
+        gaps++;
+      }
+    }
+    this.ipV6Gapped = RankedBitSet.of(gapped, ipV6StartsHigh.length);
+    this.ipV6GapStartsHigh = Arrays.copyOf(gapStartsHigh, gaps);
+    this.ipV6GapStartsLow = slash64 ? null : Arrays.copyOf(gapStartsLow, gaps);
+
+    this.locationIds = locationIds;
+    this.locations = locations;
+    this.originalLines = originalLines;
+    useSearchLayout(searchLayout);
+    buildCountryTable();
+  }
+
+  @Override
+  int ipV4Start(int index) {
+    return ipV4Starts[index];
+  }
+
+  /** @return the most significant half of the address before the given one */
+  private static long beforeHigh(long high, long low) {
+    return low == 0 ? high - 1 : high;
+  }
+
+  @Override
+  int ipV4End(int index) {
+    if (ipV4Gapped.get(index)) {
+      return ipV4GapStarts[ipV4Gapped.rank(index)] - 1;
+    }
+    return index + 1 < ipV4Starts.length ? ipV4Starts[index + 1] - 1 : -1;
+  }
+
+  @Override
+  long ipV6StartHigh(int index) {
+    return ipV6StartsHigh[index];
+  }
+
+  @Override
+  long ipV6StartLow(int index) {
+    return ipV6StartsLow == null ? 0 : ipV6StartsLow[index];
+  }
+
+  @Override
+  long ipV6EndHigh(int index) {
+    if (ipV6Gapped.get(index)) {
+      int gap = ipV6Gapped.rank(index);
+      return beforeHigh(ipV6GapStartsHigh[gap], ipV6GapStartLow(gap));
+    }
+    return index + 1 < ipV6StartsHigh.length
+        ? beforeHigh(ipV6StartsHigh[index + 1], ipV6StartLow(index + 1))
+        : -1;
+  }
+
+  @Override
+  long ipV6EndLow(int index) {
+    if (ipV6Gapped.get(index)) {
+      return ipV6GapStartLow(ipV6Gapped.rank(index)) - 1;
+    }
+    return index + 1 < ipV6StartsHigh.length ? ipV6StartLow(index + 1) - 1 : -1;
+  }
+
+  private long ipV6GapStartLow(int gap) {
+    return ipV6GapStartsLow == null ? 0 : ipV6GapStartsLow[gap];
+  }
+
+  @Override
+  boolean coversWholeSlash64s() {
+    return ipV6StartsLow == null;
+  }
+
+  /** @return how many ranges don't run up to the next one, each stored with a gap sentinel */
+  int gapCount() {
+    return ipV4GapStarts.length + ipV6GapStartsHigh.length;
+  }
+
+  @Override
+  int locationId(int range) {
+    return locationIds[range];
+  }
+
+  @Override
+  int locationCount() {
+    return locations.length;
+  }
+
+  @Override
+  byte[] locationById(int id) {
+    return locations[id];
+  }
+
+  @Override
+  String originalLine(int range) {
+    return originalLines == null ? null : originalLines[range];
+  }
+
+  /**
+   * Writes this database to an immutable snapshot that can later be served, without reading the
+   * sources again, by {@link MappedSnapshotIpDatabase#open(Path)}
+   *
+   * @param provider the provider the snapshot will be registered under once opened
+   * @param path where to write the snapshot. Any existing file is atomically replaced
+   * @throws IOException if the snapshot can't be written
+   */
+  public void writeSnapshot(ProviderKey provider, Path path) throws IOException {
+    SortedArraySnapshot.write(this, provider, path);
+  }
+}
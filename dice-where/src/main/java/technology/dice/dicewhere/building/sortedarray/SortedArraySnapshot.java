@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import technology.dice.dicewhere.provider.ProviderKey;
+
+/**
+ * On-disk layout of a {@link SortedArrayIpDatabase}, served by {@link MappedSnapshotIpDatabase}.
+ * All values are big endian, and every section is a flat array so that lookups can binary search
+ * the mapped file directly:
+ *
+ * <pre>
+ * header       magic, version, flags, provider name (length + UTF-8), IPV4, IPV6 and location counts
+ * IPV4         int starts[], int ends[], int jumpTable[65537]
+ * IPV6         long startsHigh[], long startsLow[], long endsHigh[], long endsLow[]
+ * ranges       int locationIds[]
+ * locations    int offsets[locations + 1], serialised locations
+ * lines        only when flagged: int offsets[ranges + 1], UTF-8 original lines
+ * </pre>
+ *
+ * The IPV4 jump table and whether every IPV6 range covers whole /64s are stored rather than
+ * derived, so that opening a snapshot doesn't scan its ranges. Any change to the layout must bump
+ * {@link #VERSION}: snapshots of other versions are rejected when opened.
+ */
+final class SortedArraySnapshot {
+  static final int MAGIC = 0x44575341;
+  static final int VERSION = 2;
+  static final int FLAG_ORIGINAL_LINES = 1;
+  static final int FLAG_IPV6_SLASH64 = 2;
+
+  private SortedArraySnapshot() {}
+
+  static void write(SortedArrayIpDatabase database, ProviderKey provider, Path path)
+      throws IOException {
+    Path absolute = path.toAbsolutePath();
+    Path temporary =
+        Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        writeHeader(out, database, provider);
+        writeInts(out, database.ipV4Starts);
+        for (int i = 0; i < database.ipV4Count(); i++) {
+          out.writeInt(database.ipV4End(i));
+        }
+        IntBuffer jumpTable = database.ipV4JumpTable();
+        while (jumpTable.hasRemaining()) {
+          out.writeInt(jumpTable.get());
+        }
+        writeLongs(out, database.ipV6StartsHigh);
+        for (int i = 0; i < database.ipV6Count(); i++) {
+          out.writeLong(database.ipV6StartLow(i));
+        }
+        for (int i = 0; i < database.ipV6Count(); i++) {
+          out.writeLong(database.ipV6EndHigh(i));
+        }
+        for (int i = 0; i < database.ipV6Count(); i++) {
+          out.writeLong(database.ipV6EndLow(i));
+        }
+        writeInts(out, database.locationIds);
+        writeBlobs(out, database.locations);
+        if (database.originalLines != null) {
+          byte[][] lines = new byte[database.originalLines.length][];
+          for (int i = 0; i < lines.length; i++) {
+            String line = database.originalLines[i];
+            lines[i] = line == null ? new byte[0] : line.getBytes(StandardCharsets.UTF_8);
+          }
+          writeBlobs(out, lines);
+        }
+      }
+      if (Files.size(temporary) > Integer.MAX_VALUE) {
+        throw new IOException("Snapshot exceeds the 2GB that can be mapped at once");
+      }
+      // readers either see the previous snapshot or the complete new one, never a partial file
+      Files.move(
+          temporary, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  private static void writeHeader(
+      DataOutputStream out, SortedArrayIpDatabase database, ProviderKey provider)
+      throws IOException {
+    byte[] name = provider.name().getBytes(StandardCharsets.UTF_8);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    int flags = database.originalLines != null ? FLAG_ORIGINAL_LINES : 0;
+    out.writeInt(database.coversWholeSlash64s() ? flags | FLAG_IPV6_SLASH64 : flags);
+    out.writeInt(name.length);
+    out.write(name);
+    out.writeInt(database.ipV4Starts.length);
+    out.writeInt(database.ipV6StartsHigh.length);
+    out.writeInt(database.locations.length);
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+    for (int value : values) {
+      out.writeInt(value);
+    }
+  }
+
+  private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+    for (long value : values) {
+      out.writeLong(value);
+    }
+  }
+
+  private static void writeBlobs(DataOutputStream out, byte[][] blobs) throws IOException {
+    long offset = 0;
+    out.writeInt(0);
+    for (byte[] blob : blobs) {
+      offset += blob.length;
+      if (offset > Integer.MAX_VALUE) {
+        throw new IOException("Snapshot exceeds the 2GB that can be mapped at once");
+      }
+      out.writeInt((int) offset);
+    }
+    for (byte[] blob : blobs) {
+      out.write(blob);
+    }
+  }
+}
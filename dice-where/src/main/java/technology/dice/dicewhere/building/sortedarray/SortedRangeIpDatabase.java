@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.building.LocationDictionary;
+import technology.dice.dicewhere.building.RangeIpDatabase;
+
+/**
+ * Lookups over ranges laid out as sorted, parallel sequences of primitive bounds: IPV4 bounds as
+ * unsigned {@code int}s and IPV6 bounds as pairs of unsigned {@code long}s (most and least
+ * significant halves). Ranges are numbered IPV4 first, followed by IPV6, and each points to its
+ * location in a dictionary of distinct locations. Subclasses decide where the sequences live.
+ *
+ * <p>IPV4 searches are narrowed by a jump table indexed by the top 16 bits of the address, holding
+ * where the ranges starting under each /16 begin. A lookup then only searches the ranges of its
+ * /16, rather than all of them, for 256KB per database. Alternatively, single lookups can search an
+ * {@link EytzingerIndex}, see {@link SearchLayout}.
+ *
+ * <p>When every IPV6 range covers whole /64s, as is the case for geolocation data, the least
+ * significant halves of the bounds can't change the outcome of a search: IPV6 searches then only
+ * compare the most significant halves.
+ *
+ * <p>Results can be kept in a bounded {@link MaterialisedRangeCache}, in which case lookups for a
+ * cached range return a shared, immutable result without allocating.
+ *
+ * <p>Country lookups go through a table holding the index of the country of each distinct location
+ * in a table of distinct countries. They neither decode locations nor allocate. Databases on the
+ * heap build the table along with their ranges, so the first lookup doesn't decode every location.
+ * Mapped snapshots build it on first use instead, keeping opening them free of scans.
+ */
+abstract class SortedRangeIpDatabase implements RangeIpDatabase {
+  private static final int JUMP_TABLE_SHIFT = 16;
+  static final int IPV4_JUMP_TABLE_LENGTH = (1 << (32 - JUMP_TABLE_SHIFT)) + 1;
+  private final int ipV4Count;
+  private final int ipV6Count;
+  private final MaterialisedRangeCache materialised;
+  private IntBuffer ipV4JumpTable;
+  private EytzingerIndex eytzinger;
+  private boolean ipV6Slash64;
+  private volatile CountryTable countryTable;
+
+  SortedRangeIpDatabase(int ipV4Count, int ipV6Count, int materialisedCacheSize) {
+    this.ipV4Count = ipV4Count;
+    this.ipV6Count = ipV6Count;
+    int rangeCount = ipV4Count + ipV6Count;
+    this.materialised =
+        materialisedCacheSize > 0 && rangeCount > 0
+            ? new MaterialisedRangeCache(Math.min(materialisedCacheSize, rangeCount))
+            : null;
+  }
+
+  /**
+   * @return where the IPV4 ranges starting under each /16 begin, followed by the number of IPV4
+   *     ranges, or null to search all the ranges. Built from the starts unless a subclass has it
+   *     stored
+   */
+  IntBuffer ipV4JumpTable() {
+    int[] table = new int[IPV4_JUMP_TABLE_LENGTH];
+    int range = 0;
+    for (int prefix = 0; prefix < table.length; prefix++) {
+      while (range < ipV4Count && ipV4Start(range) >>> JUMP_TABLE_SHIFT < prefix) {
+        range++;
+      }
+      table[prefix] = range;
+    }
+    return IntBuffer.wrap(table);
+  }
+
+  /**
+   * Lays out the range starts for single lookups. Must be called once the bounds are accessible, at
+   * the end of construction
+   */
+  final void useSearchLayout(SearchLayout layout) {
+    ipV6Slash64 = coversWholeSlash64s();
+    if (layout == SearchLayout.EYTZINGER) {
+      eytzinger = EytzingerIndex.of(this);
+      ipV4JumpTable = null;
+    } else {
+      eytzinger = null;
+      ipV4JumpTable = ipV4JumpTable();
+    }
+  }
+
+  /**
+   * @return whether every IPV6 range starts at the first address of a /64 and ends at the last.
+   *     Checks every IPV6 range unless a subclass knows already
+   */
+  boolean coversWholeSlash64s() {
+    for (int i = 0; i < ipV6Count; i++) {
+      if (ipV6StartLow(i) != 0 || ipV6EndLow(i) != -1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  int ipV4Count() {
+    return ipV4Count;
+  }
+
+  int ipV6Count() {
+    return ipV6Count;
+  }
+
+  abstract int ipV4Start(int index);
+
+  abstract int ipV4End(int index);
+
+  abstract long ipV6StartHigh(int index);
+
+  abstract long ipV6StartLow(int index);
+
+  abstract long ipV6EndHigh(int index);
+
+  abstract long ipV6EndLow(int index);
+
+  /** @return the id of the location of the range */
+  abstract int locationId(int range);
+
+  /** @return the number of distinct locations */
+  abstract int locationCount();
+
+  /** @return the serialised location with the id, as stored by a {@link LocationDictionary} */
+  abstract byte[] locationById(int id);
+
+  /** @return the original line of the range, or null if it wasn't retained */
+  abstract String originalLine(int range);
+
+  @Override
+  public Optional<IpInformation> get(IP ip) {
+    int range = range(ip);
+    return range < 0 ? Optional.empty() : result(range);
+  }
+
+  @Override
+  public Optional<String> getCountry(IP ip) {
+    int range = range(ip);
+    return range < 0 ? Optional.empty() : country(locationId(range));
+  }
+
+  /** @return the country of the location, without decoding it */
+  final Optional<String> country(int locationId) {
+    return countryTable().country(locationId);
+  }
+
+  /** @return the range containing the IP, numbered IPV4 first followed by IPV6, or -1 if none */
+  int range(IP ip) {
+    int length = ip.getLength();
+    if (length == 4) {
+      int key = (int) ip.getLow();
+      int floor = eytzinger != null ? eytzinger.floorIpV4(key) : floorIpV4(-1, key);
+      return ipV4Range(floor, key);
+    } else if (length == 16) {
+      long high = ip.getHigh();
+      long low = ip.getLow();
+      int floor = eytzinger != null ? eytzinger.floorIpV6(high, low) : floorIpV6(-1, high, low);
+      return ipV6Range(floor, high, low);
+    }
+    return -1;
+  }
+
+  /**
+   * Sorts the batch and walks the ranges once, galloping forward from the range found for the
+   * previous IP rather than searching from scratch for each one.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Optional<IpInformation>> getAll(List<IP> ips) {
+    Optional<IpInformation>[] results = new Optional[ips.size()];
+    // IPV4 addresses and their position in the batch are packed together, so they sort as longs
+    long[] ipV4s = new long[ips.size()];
+    int ipV4sCount = 0;
+    Integer[] ipV6s = new Integer[ips.size()];
+    int ipV6sCount = 0;
+    for (int i = 0; i < ips.size(); i++) {
+      int length = ips.get(i).getLength();
+      if (length == 4) {
+        ipV4s[ipV4sCount++] = (ips.get(i).getLow() << 31) | i;
+      } else if (length == 16) {
+        ipV6s[ipV6sCount++] = i;
+      } else {
+        results[i] = Optional.empty();
+      }
+    }
+
+    Arrays.sort(ipV4s, 0, ipV4sCount);
+    int floor = -1;
+    for (int i = 0; i < ipV4sCount; i++) {
+      int key = (int) (ipV4s[i] >>> 31);
+      floor = floorIpV4(floor, key);
+      int range = ipV4Range(floor, key);
+      results[(int) (ipV4s[i] & Integer.MAX_VALUE)] =
+          range < 0 ? Optional.empty() : result(range);
+    }
+
+    Arrays.sort(ipV6s, 0, ipV6sCount, Comparator.comparing(ips::get));
+    floor = -1;
+    for (int i = 0; i < ipV6sCount; i++) {
+      IP ip = ips.get(ipV6s[i]);
+      floor = floorIpV6(floor, ip.getHigh(), ip.getLow());
+      int range = ipV6Range(floor, ip.getHigh(), ip.getLow());
+      results[ipV6s[i]] = range < 0 ? Optional.empty() : result(range);
+    }
+    return Arrays.asList(results);
+  }
+
+  /** @return the range if it contains the IP, otherwise -1 */
+  private int ipV4Range(int index, int ip) {
+    if (index < 0 || Integer.compareUnsigned(ip, ipV4End(index)) > 0) {
+      return -1;
+    }
+    return index;
+  }
+
+  /** @return the number of the range, IPV4 ranges included, if it contains the IP, otherwise -1 */
+  private int ipV6Range(int index, long high, long low) {
+    if (index < 0) {
+      return -1;
+    }
+    if (ipV6Slash64
+        ? Long.compareUnsigned(high, ipV6EndHigh(index)) > 0
+        : compare(high, low, ipV6EndHigh(index), ipV6EndLow(index)) > 0) {
+      return -1;
+    }
+    return ipV4Count + index;
+  }
+
+  /**
+   * @param from a range known to start at or before the IP, from which to gallop forward, or -1 to
+   *     search all the ranges
+   * @return the last range starting at or before the IP, or -1 if there is none
+   */
+  private int floorIpV4(int from, int ip) {
+    int low = from;
+    int high = ipV4Count - 1;
+    if (from >= 0) {
+      int bound = 1;
+      while (low + bound < ipV4Count && Integer.compareUnsigned(ipV4Start(low + bound), ip) <= 0) {
+        low += bound;
+        bound <<= 1;
+      }
+      high = Math.min(low + bound, ipV4Count) - 1;
+    } else if (ipV4JumpTable != null) {
+      // the ranges starting under the IP's /16, preceded by the last one starting before it
+      int prefix = ip >>> JUMP_TABLE_SHIFT;
+      low = ipV4JumpTable.get(prefix) - 1;
+      high = ipV4JumpTable.get(prefix + 1) - 1;
+    }
+    int found = low;
+    low++;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (Integer.compareUnsigned(ipV4Start(mid), ip) <= 0) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @param from a range known to start at or before the IP, from which to gallop forward, or -1 to
+   *     search all the ranges
+   * @return the last range starting at or before the IP, or -1 if there is none
+   */
+  private int floorIpV6(int from, long ipHigh, long ipLow) {
+    if (ipV6Slash64) {
+      return floorIpV6Slash64(from, ipHigh);
+    }
+    int low = from;
+    int high = ipV6Count - 1;
+    if (from >= 0) {
+      int bound = 1;
+      while (low + bound < ipV6Count
+          && compare(ipV6StartHigh(low + bound), ipV6StartLow(low + bound), ipHigh, ipLow) <= 0) {
+        low += bound;
+        bound <<= 1;
+      }
+      high = Math.min(low + bound, ipV6Count) - 1;
+    }
+    int found = low;
+    low++;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (compare(ipV6StartHigh(mid), ipV6StartLow(mid), ipHigh, ipLow) <= 0) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  /** {@link #floorIpV6} for ranges covering whole /64s, which all start with a zero low half */
+  private int floorIpV6Slash64(int from, long ipHigh) {
+    int low = from;
+    int high = ipV6Count - 1;
+    if (from >= 0) {
+      int bound = 1;
+      while (low + bound < ipV6Count
+          && Long.compareUnsigned(ipV6StartHigh(low + bound), ipHigh) <= 0) {
+        low += bound;
+        bound <<= 1;
+      }
+      high = Math.min(low + bound, ipV6Count) - 1;
+    }
+    int found = low;
+    low++;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (Long.compareUnsigned(ipV6StartHigh(mid), ipHigh) <= 0) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+    int high = Long.compareUnsigned(aHigh, bHigh);
+    return high != 0 ? high : Long.compareUnsigned(aLow, bLow);
+  }
+
+  /** @return the result for a range, numbered IPV4 first followed by IPV6 */
+  Optional<IpInformation> result(int range) {
+    if (materialised == null) {
+      return Optional.of(materialise(range));
+    }
+    Optional<IpInformation> result = materialised.get(range);
+    if (result == null) {
+      result = Optional.of(materialise(range));
+      materialised.put(range, result);
+    }
+    return result;
+  }
+
+  /**
+   * {@link #result(int)} for a range whose bounds and location were decoded while searching for
+   * it, so that they aren't accessed again. IPV4 bounds are held in the low halves
+   */
+  final Optional<IpInformation> result(
+      int range, long startHigh, long startLow, long endHigh, long endLow, int locationId) {
+    if (materialised == null) {
+      return Optional.of(materialise(range, startHigh, startLow, endHigh, endLow, locationId));
+    }
+    Optional<IpInformation> result = materialised.get(range);
+    if (result == null) {
+      result = Optional.of(materialise(range, startHigh, startLow, endHigh, endLow, locationId));
+      materialised.put(range, result);
+    }
+    return result;
+  }
+
+  /** Builds the country table now rather than on first use. Called at the end of construction */
+  final void buildCountryTable() {
+    countryTable = new CountryTable(this);
+  }
+
+  private CountryTable countryTable() {
+    CountryTable table = countryTable;
+    if (table == null) {
+      // racing threads build identical tables, either of which can be kept
+      table = new CountryTable(this);
+      countryTable = table;
+    }
+    return table;
+  }
+
+  private IpInformation materialise(int range) {
+    if (range < ipV4Count) {
+      return materialise(range, 0, ipV4Start(range), 0, ipV4End(range), locationId(range));
+    }
+    int index = range - ipV4Count;
+    return materialise(
+        range,
+        ipV6StartHigh(index),
+        ipV6StartLow(index),
+        ipV6EndHigh(index),
+        ipV6EndLow(index),
+        locationId(range));
+  }
+
+  private IpInformation materialise(
+      int range, long startHigh, long startLow, long endHigh, long endLow, int locationId) {
+    IP start;
+    IP end;
+    if (range < ipV4Count) {
+      start = IP.fromIpV4((int) startLow);
+      end = IP.fromIpV4((int) endLow);
+    } else {
+      start = IP.fromIpV6(startHigh, startLow);
+      end = IP.fromIpV6(endHigh, endLow);
+    }
+    return LocationDictionary.decode(locationById(locationId))
+        .withStartOfRange(start)
+        .withEndOfRange(end)
+        .withOriginalLine(originalLine(range))
+        .build();
+  }
+
+  @Override
+  public long size() {
+    return ipV4Count + ipV6Count;
+  }
+
+  /**
+   * The country of each distinct location, as an index into the distinct countries. Countries are
+   * held as ready made results, so that lookups return them without allocating.
+   */
+  private static final class CountryTable {
+    private final short[] countryByLocation;
+    private final Optional<String>[] countries;
+
+    @SuppressWarnings("unchecked")
+    private CountryTable(SortedRangeIpDatabase database) {
+      countryByLocation = new short[database.locationCount()];
+      Map<String, Short> indexes = new HashMap<>();
+      for (int id = 0; id < countryByLocation.length; id++) {
+        String country = LocationDictionary.decodeCountry(database.locationById(id));
+        Short index = indexes.get(country);
+        if (index == null) {
+          if (indexes.size() > Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many distinct countries to index");
+          }
+          index = (short) indexes.size();
+          indexes.put(country, index);
+        }
+        countryByLocation[id] = index;
+      }
+      countries = new Optional[indexes.size()];
+      indexes.forEach((country, index) -> countries[index] = Optional.of(country));
+    }
+
+    private Optional<String> country(int location) {
+      return countries[countryByLocation[location]];
+    }
+  }
+}
@@ -12,7 +12,6 @@ import com.google.common.collect.ImmutableSet;
 import org.jetbrains.annotations.NotNull;
 import technology.dice.dicewhere.api.api.IP;
 import technology.dice.dicewhere.api.api.IpInformation;
-import technology.dice.dicewhere.utils.IPUtils;
 
 import java.net.UnknownHostException;
 import java.util.*;
@@ -101,8 +100,7 @@ public abstract class Decorator<T extends DecoratorInformation> {
       if (allValidRanges
           .get(i)
           .getRangeStart()
-          .isGreaterThan(
-              IPUtils.increment(mergedResults.get(mergedResults.size() - 1).getRangeEnd()))) {
+          .isGreaterThan(mergedResults.get(mergedResults.size() - 1).getRangeEnd().next())) {
         mergedResults.add(allValidRanges.get(i));
       } else {
         IP start = mergedResults.get(mergedResults.size() - 1).getRangeStart();
@@ -126,7 +124,7 @@ public abstract class Decorator<T extends DecoratorInformation> {
           if (Math.max(splits.get(i).getRangeInfo().getNumberOfMatches(), rangeNestingLevel)
               >= filterThreshold) {
             IP splitStart = splits.get(i - 1).getIp();
-            IP splitEnd = new IP(IPUtils.from(splits.get(i).getIp().getBytes()).getBytes());
+            IP splitEnd = splits.get(i).getIp();
             allValidRanges.add(splits.get(i - 1).getRangeInfo().withNewRange(splitStart, splitEnd));
           }
           // 2) add the range splits previously in the list
@@ -141,8 +139,7 @@ public abstract class Decorator<T extends DecoratorInformation> {
             if (rangeDiffCoverage >= filterThreshold) {
               IP start = splits.get(i - 2).getIp();
               IP nextSplitStart = splits.get(i - 1).getIp();
-              if (new IP(IPUtils.from(start.getBytes()).increment(1).getBytes())
-                  .isLowerThan(nextSplitStart)) {
+              if (start.next().isLowerThan(nextSplitStart)) {
                 allValidRanges.add(
                     splits
                         .get(i - 2)
@@ -165,14 +162,14 @@ public abstract class Decorator<T extends DecoratorInformation> {
                     .get(i)
                     .getRangeInfo()
                     .withNewRange(
-                        new IP(IPUtils.from(prevSplitEnd.getBytes()).increment(1).getBytes()),
+                        prevSplitEnd.next(),
                         end));
           }
         }
       } else if (splits.get(i).isStart() && rangeNestingLevel >= filterThreshold) {
         // 4) the gaps between ranges that are overlapped by a bigger range
-        IP start = IPUtils.increment(splits.get(i - 1).getIp());
-        IP end = IPUtils.decrement(splits.get(i).getIp());
+        IP start = splits.get(i - 1).getIp().next();
+        IP end = splits.get(i).getIp().previous();
         if (start.isLowerThan(end)) {
           allValidRanges.add(
               splits
@@ -316,7 +313,7 @@ public abstract class Decorator<T extends DecoratorInformation> {
         result.add(new DecorationRangePoint<>(lookupStart, true, Optional.empty(), original));
         result.add(
             new DecorationRangePoint<>(
-                new IP(IPUtils.from(splits.get(i).getIp().getBytes()).increment(-1).getBytes()),
+                splits.get(i).getIp().previous(),
                 false,
                 Optional.empty(),
                 original));
@@ -325,17 +322,13 @@ public abstract class Decorator<T extends DecoratorInformation> {
         inSplitRange++;
       } else {
         inSplitRange--;
-        lookupStart =
-            new IP(IPUtils.from(splits.get(i).getIp().getBytes()).increment(1).getBytes());
+        lookupStart = splits.get(i).getIp().next();
       }
     }
     if (lookupEnd.isGreaterThan(splits.get(splits.size() - 1).getIp())) {
       result.add(
           new DecorationRangePoint<>(
-              new IP(
-                  IPUtils.from(splits.get(splits.size() - 1).getIp().getBytes())
-                      .increment(1)
-                      .getBytes()),
+              splits.get(splits.size() - 1).getIp().next(),
               true,
               Optional.empty(),
               original));
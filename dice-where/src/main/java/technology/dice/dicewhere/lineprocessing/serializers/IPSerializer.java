@@ -17,8 +17,15 @@ public class IPSerializer extends GroupSerializerObjectArray<IP> {
 
   @Override
   public void serialize(@Nonnull DataOutput2 dataOutput2, @Nonnull IP ip) throws IOException {
-    dataOutput2.packInt(ip.getBytes().length);
-    dataOutput2.write(ip.getBytes());
+    int length = ip.getLength();
+    dataOutput2.packInt(length);
+    long high = ip.getHigh();
+    long low = ip.getLow();
+    // most significant byte first, as getBytes() would return them
+    for (int i = length - 1; i >= 0; i--) {
+      long half = i < Long.BYTES ? low : high;
+      dataOutput2.writeByte((int) (half >>> (i % Long.BYTES * Byte.SIZE)));
+    }
   }
 
   @Override
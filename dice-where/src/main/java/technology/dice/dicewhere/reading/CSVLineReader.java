@@ -23,7 +23,10 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Enumeration;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
@@ -35,10 +38,19 @@ import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipFile;
 import org.jetbrains.annotations.NotNull;
-import technology.dice.dicewhere.building.navigablemap.MapDbDatabaseBuilder;
+import technology.dice.dicewhere.api.api.IpInformationField;
+import technology.dice.dicewhere.building.DatabaseBuilder;
 import technology.dice.dicewhere.building.DatabaseBuilderListener;
 import technology.dice.dicewhere.building.IPDatabase;
-import technology.dice.dicewhere.building.navigablemap.NavigableMapIpDatabase;
+import technology.dice.dicewhere.building.RangeIpDatabase;
+import technology.dice.dicewhere.building.navigablemap.MapDbDatabaseBuilder;
+import technology.dice.dicewhere.building.sortedarray.BlockCompressedIpDatabase;
+import technology.dice.dicewhere.building.sortedarray.MappedSnapshotIpDatabase;
+import technology.dice.dicewhere.building.sortedarray.SearchLayout;
+import technology.dice.dicewhere.building.sortedarray.SortedArrayDatabaseBuilder;
+import technology.dice.dicewhere.building.sortedarray.SortedArrayIpDatabase;
+import technology.dice.dicewhere.decorator.Decorator;
+import technology.dice.dicewhere.decorator.DecoratorInformation;
 import technology.dice.dicewhere.lineprocessing.LineProcessor;
 import technology.dice.dicewhere.lineprocessing.LineProcessorListener;
 import technology.dice.dicewhere.lineprocessing.LineprocessorListenerForProvider;
@@ -53,6 +65,11 @@ import technology.dice.dicewhere.provider.ProviderKey;
 public abstract class CSVLineReader implements SourceReader {
   private static final int LINES_BUFFER = 100000;
   private final MapDbDatabaseBuilder.StorageMode storageMode;
+  private int materialisedCacheSize = SortedArrayDatabaseBuilder.DEFAULT_MATERIALISED_CACHE_SIZE;
+  private SearchLayout searchLayout = SearchLayout.SORTED;
+  private Path snapshot;
+  private Set<IpInformationField> retainedFields;
+  private boolean coalesceRanges = false;
   public static byte[] MAGIC_ZIP = {'P', 'K', 0x3, 0x4};
   public static int MAGIG_GZIP = 0xff00;
 
@@ -64,6 +81,78 @@ public abstract class CSVLineReader implements SourceReader {
     this.storageMode = storageMode;
   }
 
+  /**
+   * Only applies to {@link MapDbDatabaseBuilder.StorageMode#SORTED_ARRAY} and {@link
+   * MapDbDatabaseBuilder.StorageMode#BLOCK_COMPRESSED}
+   *
+   * @param size how many lookup results to keep materialised, so that repeated lookups of the same
+   *     range return a shared instance instead of allocating. 0, the default, disables it
+   * @return this reader
+   */
+  public CSVLineReader withMaterialisedCacheSize(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("The materialised cache size can't be negative");
+    }
+    this.materialisedCacheSize = size;
+    return this;
+  }
+
+  /**
+   * Only applies to {@link MapDbDatabaseBuilder.StorageMode#SORTED_ARRAY}
+   *
+   * @param searchLayout how to lay out the range starts for single lookups
+   * @return this reader
+   */
+  public CSVLineReader withSearchLayout(@NotNull SearchLayout searchLayout) {
+    this.searchLayout = Objects.requireNonNull(searchLayout);
+    return this;
+  }
+
+  /**
+   * Only applies to {@link MapDbDatabaseBuilder.StorageMode#SORTED_ARRAY}. Once built, the database
+   * is also written to a snapshot, which later processes can serve through {@link
+   * MappedSnapshotIpDatabase#open(Path)} instead of reading the sources again
+   *
+   * @param snapshot where to write the snapshot
+   * @return this reader
+   */
+  public CSVLineReader withSnapshot(@NotNull Path snapshot) {
+    if (storageMode != MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY) {
+      throw new IllegalArgumentException("Snapshots can only be written in SORTED_ARRAY mode");
+    }
+    this.snapshot = Objects.requireNonNull(snapshot);
+    return this;
+  }
+
+  /**
+   * Only retains the given optional fields of each range, dropping the others before they are
+   * stored. Adjacent ranges left with the same location are then merged, see {@link
+   * #withRangeCoalescing}, so a database retaining only the country typically holds a fraction of
+   * the ranges of the source
+   *
+   * @param fields the fields to retain, on top of the country and the range bounds
+   * @return this reader
+   */
+  public CSVLineReader withRetainedFields(@NotNull Set<IpInformationField> fields) {
+    this.retainedFields = EnumSet.noneOf(IpInformationField.class);
+    this.retainedFields.addAll(Objects.requireNonNull(fields));
+    return this;
+  }
+
+  /**
+   * Merges each range into the previous one when it starts right after it and has the same
+   * location, as is common in sources split along CIDR boundaries. Lookups in merged ranges report
+   * the bounds of the merged range. How many ranges were merged is reported to {@link
+   * DatabaseBuilderListener#rangesMerged}. Always enabled when {@link #withRetainedFields} is set
+   *
+   * @param coalesce whether to merge adjacent ranges
+   * @return this reader
+   */
+  public CSVLineReader withRangeCoalescing(boolean coalesce) {
+    this.coalesceRanges = coalesce;
+    return this;
+  }
+
   public abstract ProviderKey provider();
 
   public abstract LineParser parser();
@@ -128,7 +217,7 @@ public abstract class CSVLineReader implements SourceReader {
     return br;
   }
 
-  public final NavigableMapIpDatabase read(
+  public final RangeIpDatabase read(
       boolean retainOriginalLine,
       LineReaderListener readerListener,
       LineProcessorListener processListener,
@@ -155,17 +244,13 @@ public abstract class CSVLineReader implements SourceReader {
               new LineprocessorListenerForProvider(provider(), processListener),
               workersCount);
 
-      MapDbDatabaseBuilder databaseBuilder =
-          parser()
-              .getDecorator()
-              .map(
-                  d ->
-                      new MapDbDatabaseBuilder(
-                          storageMode, provider(), serializedLinesBuffer, buildingListener, d))
-              .orElseGet(
-                  () ->
-                      new MapDbDatabaseBuilder(
-                          storageMode, provider(), serializedLinesBuffer, buildingListener));
+      DatabaseBuilder<? extends RangeIpDatabase> databaseBuilder =
+          databaseBuilder(
+              serializedLinesBuffer, buildingListener, parser().getDecorator().orElse(null));
+      if (retainedFields != null) {
+        databaseBuilder.withRetainedFields(retainedFields);
+      }
+      databaseBuilder.withRangeCoalescing(coalesceRanges);
 
       Future processorFuture = setupExecutorService.submit(processor);
       Future databaseBuilderFuture = setupExecutorService.submit(databaseBuilder);
@@ -184,8 +269,18 @@ public abstract class CSVLineReader implements SourceReader {
 
       readerListener.finished(
           provider(), databaseBuilder.processedLines(), System.currentTimeMillis() - before);
-      return databaseBuilder.build();
+      RangeIpDatabase database = databaseBuilder.build();
+      if (snapshot != null) {
+        ((SortedArrayIpDatabase) database).writeSnapshot(provider(), snapshot);
+      }
+      if (storageMode == MapDbDatabaseBuilder.StorageMode.BLOCK_COMPRESSED) {
+        database =
+            BlockCompressedIpDatabase.of((SortedArrayIpDatabase) database, materialisedCacheSize);
+      }
+      return database;
     } catch (Exception e) {
+      parserExecutorService.shutdownNow();
+      setupExecutorService.shutdownNow();
       throw new RuntimeException("Line reader read failed", e);
     } finally {
       parserExecutorService.shutdown();
@@ -193,6 +288,30 @@ public abstract class CSVLineReader implements SourceReader {
     }
   }
 
+  @Override
+  public boolean fusable() {
+    return storageMode == MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY
+        || storageMode == MapDbDatabaseBuilder.StorageMode.BLOCK_COMPRESSED;
+  }
+
+  private DatabaseBuilder<? extends RangeIpDatabase> databaseBuilder(
+      BlockingQueue<SerializedLine> serializedLinesBuffer,
+      DatabaseBuilderListener buildingListener,
+      Decorator<? extends DecoratorInformation> decorator) {
+    if (storageMode == MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY
+        || storageMode == MapDbDatabaseBuilder.StorageMode.BLOCK_COMPRESSED) {
+      return new SortedArrayDatabaseBuilder(
+          provider(),
+          serializedLinesBuffer,
+          buildingListener,
+          decorator,
+          materialisedCacheSize,
+          searchLayout);
+    }
+    return new MapDbDatabaseBuilder(
+        storageMode, provider(), serializedLinesBuffer, buildingListener, decorator);
+  }
+
   private void publishLinesToProcessor(
       LineReaderListener readerListener, long before, LineProcessor processor) throws IOException {
     final long[] n = {0};
@@ -19,4 +19,14 @@ public interface SourceReader {
       int workersCount);
 
   ProviderKey provider();
+
+  /**
+   * Lets a resolver fusing its providers reject this one before reading it. Readers that can't
+   * tell before reading answer true, and fusing then fails once the database is built
+   *
+   * @return whether the database read may be stored as sorted arrays, and so be fused
+   */
+  default boolean fusable() {
+    return true;
+  }
 }
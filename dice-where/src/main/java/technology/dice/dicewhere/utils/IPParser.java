@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.utils;
+
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+import technology.dice.dicewhere.api.api.IP;
+
+/**
+ * Parses IPV4 and IPV6 literals without going through {@link java.net.InetAddress}, which
+ * allocates on every call and would fall back to a DNS lookup for anything that isn't a literal.
+ * Hostnames are rejected outright.
+ *
+ * <p>IPV4 is accepted in dotted quad form only. IPV6 is accepted with {@code ::} compression, an
+ * optional embedded IPV4 tail and optional surrounding brackets, but without a zone. As with {@link
+ * java.net.InetAddress}, IPV4 mapped IPV6 addresses ({@code ::ffff:a.b.c.d}) parse to their IPV4
+ * address.
+ */
+public class IPParser {
+  private static final int IPV4_LENGTH = 4;
+  private static final int IPV6_LENGTH = 16;
+
+  /**
+   * @param ip the literal to parse
+   * @return the parsed IP
+   * @throws UnknownHostException if the input is not a valid IP literal
+   */
+  public static IP parse(@Nonnull CharSequence ip) throws UnknownHostException {
+    byte[] buffer = new byte[IPV6_LENGTH];
+    int length = parse(ip, buffer);
+    return new IP(length == IPV6_LENGTH ? buffer : Arrays.copyOf(buffer, length));
+  }
+
+  /**
+   * Allocation free variant of {@link #parse(CharSequence)}, for callers reusing a buffer
+   *
+   * @param ip the literal to parse
+   * @param target where the address is written, most significant byte first. Must have room for
+   *     16 bytes, and its content is undefined if the input is not valid
+   * @return the length of the address written to the buffer: 4 for IPV4, 16 for IPV6
+   * @throws UnknownHostException if the input is not a valid IP literal
+   */
+  public static int parse(@Nonnull CharSequence ip, @Nonnull byte[] target)
+      throws UnknownHostException {
+    Objects.requireNonNull(ip);
+    if (Objects.requireNonNull(target).length < IPV6_LENGTH) {
+      throw new IllegalArgumentException("The target buffer must have room for 16 bytes");
+    }
+    int from = 0;
+    int to = ip.length();
+    if (to > 1 && ip.charAt(0) == '[' && ip.charAt(to - 1) == ']') {
+      from++;
+      to--;
+    }
+    if (!contains(ip, from, to, ':')) {
+      if (from != 0 || !parseIpV4(ip, from, to, target, 0)) {
+        throw invalid(ip);
+      }
+      return IPV4_LENGTH;
+    }
+    if (!parseIpV6(ip, from, to, target)) {
+      throw invalid(ip);
+    }
+    if (isIpV4Mapped(target)) {
+      System.arraycopy(target, 12, target, 0, IPV4_LENGTH);
+      return IPV4_LENGTH;
+    }
+    return IPV6_LENGTH;
+  }
+
+  private static boolean parseIpV4(CharSequence ip, int from, int to, byte[] target, int offset) {
+    int i = from;
+    for (int octet = 0; octet < IPV4_LENGTH; octet++) {
+      if (octet > 0) {
+        if (i >= to || ip.charAt(i) != '.') {
+          return false;
+        }
+        i++;
+      }
+      int value = 0;
+      int digits = 0;
+      while (i < to && digits < 4) {
+        int digit = ip.charAt(i) - '0';
+        if (digit < 0 || digit > 9) {
+          break;
+        }
+        value = value * 10 + digit;
+        digits++;
+        i++;
+      }
+      if (digits == 0 || digits > 3 || value > 255) {
+        return false;
+      }
+      target[offset + octet] = (byte) value;
+    }
+    return i == to;
+  }
+
+  private static boolean parseIpV6(CharSequence ip, int from, int to, byte[] target) {
+    int i = from;
+    int position = 0;
+    int compressedAt = -1;
+    if (to - i >= 2 && ip.charAt(i) == ':' && ip.charAt(i + 1) == ':') {
+      compressedAt = 0;
+      i += 2;
+    }
+    while (i < to) {
+      if (position == IPV6_LENGTH) {
+        return false;
+      }
+      int start = i;
+      int value = 0;
+      while (i < to && i - start <= 4) {
+        int digit = hexDigit(ip.charAt(i));
+        if (digit < 0) {
+          break;
+        }
+        value = (value << 4) | digit;
+        i++;
+      }
+      if (i < to && ip.charAt(i) == '.') {
+        if (position > IPV6_LENGTH - IPV4_LENGTH || !parseIpV4(ip, start, to, target, position)) {
+          return false;
+        }
+        position += IPV4_LENGTH;
+        break;
+      }
+      if (i == start || i - start > 4) {
+        return false;
+      }
+      target[position++] = (byte) (value >>> 8);
+      target[position++] = (byte) value;
+      if (i == to) {
+        break;
+      }
+      if (ip.charAt(i) != ':' || ++i == to) {
+        return false;
+      }
+      if (ip.charAt(i) == ':') {
+        if (compressedAt >= 0) {
+          return false;
+        }
+        compressedAt = position;
+        i++;
+      }
+    }
+    if (compressedAt < 0) {
+      return position == IPV6_LENGTH;
+    }
+    if (position == IPV6_LENGTH) {
+      return false;
+    }
+    int compressed = IPV6_LENGTH - position;
+    System.arraycopy(
+        target, compressedAt, target, compressedAt + compressed, position - compressedAt);
+    for (int j = compressedAt; j < compressedAt + compressed; j++) {
+      target[j] = 0;
+    }
+    return true;
+  }
+
+  private static int hexDigit(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    } else if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    } else if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+
+  private static boolean isIpV4Mapped(byte[] address) {
+    for (int i = 0; i < 10; i++) {
+      if (address[i] != 0) {
+        return false;
+      }
+    }
+    return address[10] == (byte) 0xff && address[11] == (byte) 0xff;
+  }
+
+  private static boolean contains(CharSequence ip, int from, int to, char c) {
+    for (int i = from; i < to; i++) {
+      if (ip.charAt(i) == c) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static UnknownHostException invalid(CharSequence ip) {
+    return new UnknownHostException(ip + ": not an IP literal");
+  }
+}
@@ -11,6 +11,7 @@ import technology.dice.dicewhere.api.api.IP;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Optional;
 
 public class IPUtils {
 
@@ -23,13 +24,37 @@ public class IPUtils {
   }
 
   public static IP increment(IP ip, int increment) throws UnknownHostException {
-    return new IP(from(ip.getBytes()).increment(increment).getBytes());
+    return ip.increment(increment);
   }
 
   public static IPAddress from(IP ip) throws UnknownHostException {
     return from(ip.getBytes());
   }
 
+  /**
+   * Finds the IPV4 address embedded in an IPV4 mapped ({@code ::ffff:a.b.c.d}), IPV4 compatible
+   * ({@code ::a.b.c.d}, other than {@code ::} and {@code ::1}) or 6to4 ({@code 2002:aabb:ccdd::/48})
+   * IPV6 address
+   *
+   * @param ip the address to inspect
+   * @return the embedded IPV4 address, or empty if there is none
+   */
+  public static Optional<IP> embeddedIpV4(IP ip) {
+    if (ip.getLength() != 16) {
+      return Optional.empty();
+    }
+    long high = ip.getHigh();
+    long low = ip.getLow();
+    if (high == 0
+        && ((low >>> 32) == 0xFFFFL || ((low >>> 32) == 0 && Long.compareUnsigned(low, 1) > 0))) {
+      return Optional.of(IP.fromIpV4((int) low));
+    }
+    if (high >>> 48 == 0x2002L) {
+      return Optional.of(IP.fromIpV4((int) (high >>> 16)));
+    }
+    return Optional.empty();
+  }
+
   public static IPAddress from(byte[] bytes) throws UnknownHostException {
     return new IPAddressString(InetAddress.getByAddress(bytes).getHostAddress()).getAddress();
   }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import technology.dice.dicewhere.api.api.BatchingResolver;
+import technology.dice.dicewhere.api.api.IPResolver;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.api.exceptions.ProviderNotAvailableException;
+import technology.dice.dicewhere.building.DatabaseBuilderListener;
+import technology.dice.dicewhere.building.IPDatabase;
+import technology.dice.dicewhere.lineprocessing.LineProcessorListener;
+import technology.dice.dicewhere.provider.ProviderKey;
+import technology.dice.dicewhere.provider.dbip.DbIpProviderKey;
+import technology.dice.dicewhere.provider.dbip.reading.DbIpLocationAndIspLineReader;
+import technology.dice.dicewhere.provider.maxmind.MaxmindProviderKey;
+import technology.dice.dicewhere.reading.LineReaderListener;
+import technology.dice.dicewhere.reading.SourceReader;
+
+public class BatchingResolverTest {
+  private static final String[] IPS = {
+    "1.0.8.17", "88.55.48.100", "2c0f:fff1::", "1.0.3.100", "1.0.16.0", "50.77.185.225"
+  };
+
+  private static IPResolver resolver() {
+    return new IPResolver.Builder()
+        .withProvider(
+            new DbIpLocationAndIspLineReader(
+                Paths.get(
+                    BatchingResolverTest.class
+                        .getClassLoader()
+                        .getResource("provider/dbip/tinyValid.csv")
+                        .getFile())))
+        .build();
+  }
+
+  @Test
+  public void sameResultsAsResolver() throws Exception {
+    IPResolver resolver = resolver();
+    try (BatchingResolver batching =
+        new BatchingResolver(resolver, 32, 50, TimeUnit.MILLISECONDS)) {
+      List<CompletableFuture<Optional<IpInformation>>> single = new ArrayList<>();
+      List<CompletableFuture<Map<ProviderKey, Optional<IpInformation>>>> all = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        String ip = IPS[i % IPS.length];
+        single.add(batching.resolveAsync(ip, DbIpProviderKey.of()).toCompletableFuture());
+        all.add(batching.resolveAsync(ip).toCompletableFuture());
+      }
+      for (int i = 0; i < 100; i++) {
+        String ip = IPS[i % IPS.length];
+        assertEquals(
+            resolver.resolve(ip, DbIpProviderKey.of()), single.get(i).get(10, TimeUnit.SECONDS));
+        assertEquals(resolver.resolve(ip), all.get(i).get(10, TimeUnit.SECONDS));
+      }
+      assertTrue(batching.batches() < 100, "batches: " + batching.batches());
+    }
+  }
+
+  @Test
+  public void unavailableProviderOnlyFailsItsLookups() throws Exception {
+    IPResolver resolver = resolver();
+    try (BatchingResolver batching =
+        new BatchingResolver(resolver, 8, 50, TimeUnit.MILLISECONDS)) {
+      CompletableFuture<Optional<IpInformation>> unavailable =
+          batching.resolveAsync("1.0.8.17", MaxmindProviderKey.of()).toCompletableFuture();
+      CompletableFuture<Optional<IpInformation>> available =
+          batching.resolveAsync("1.0.8.17", DbIpProviderKey.of()).toCompletableFuture();
+
+      ExecutionException e =
+          assertThrows(ExecutionException.class, () -> unavailable.get(10, TimeUnit.SECONDS));
+      assertTrue(e.getCause() instanceof ProviderNotAvailableException);
+      assertEquals(
+          resolver.resolve("1.0.8.17", DbIpProviderKey.of()), available.get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void errorOnlyFailsItsLookups() throws Exception {
+    IPResolver resolver =
+        new IPResolver.Builder()
+            .withProvider(
+                new DbIpLocationAndIspLineReader(
+                    Paths.get(
+                        BatchingResolverTest.class
+                            .getClassLoader()
+                            .getResource("provider/dbip/tinyValid.csv")
+                            .getFile())))
+            .withProvider(failingReader(MaxmindProviderKey.of()))
+            .build();
+    try (BatchingResolver batching =
+        new BatchingResolver(resolver, 8, 0, TimeUnit.MILLISECONDS)) {
+      ExecutionException e =
+          assertThrows(
+              ExecutionException.class,
+              () ->
+                  batching
+                      .resolveAsync("1.0.8.17", MaxmindProviderKey.of())
+                      .toCompletableFuture()
+                      .get(10, TimeUnit.SECONDS));
+      assertTrue(e.getCause() instanceof AssertionError);
+      e =
+          assertThrows(
+              ExecutionException.class,
+              () ->
+                  batching.resolveAsync("1.0.8.17").toCompletableFuture().get(10, TimeUnit.SECONDS));
+      assertTrue(e.getCause() instanceof AssertionError);
+
+      assertEquals(
+          resolver.resolve("1.0.8.17", DbIpProviderKey.of()),
+          batching
+              .resolveAsync("1.0.8.17", DbIpProviderKey.of())
+              .toCompletableFuture()
+              .get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  private static SourceReader failingReader(ProviderKey provider) {
+    return new SourceReader() {
+      @Override
+      public IPDatabase read(
+          boolean retainOriginalLine,
+          LineReaderListener readerListener,
+          LineProcessorListener processListener,
+          DatabaseBuilderListener buildingListener,
+          int workersCount) {
+        return ip -> {
+          throw new AssertionError("Corrupted database");
+        };
+      }
+
+      @Override
+      public ProviderKey provider() {
+        return provider;
+      }
+    };
+  }
+
+  @Test
+  public void closedFailsLookups() throws Exception {
+    BatchingResolver batching = new BatchingResolver(resolver(), 8, 0, TimeUnit.MILLISECONDS);
+    batching.close();
+    ExecutionException e =
+        assertThrows(
+            ExecutionException.class,
+            () ->
+                batching
+                    .resolveAsync("1.0.8.17", DbIpProviderKey.of())
+                    .toCompletableFuture()
+                    .get(10, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof IllegalStateException);
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new BatchingResolver(resolver(), 0, 0, TimeUnit.MILLISECONDS));
+  }
+}
@@ -6,6 +6,7 @@ import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
@@ -19,7 +20,10 @@ import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
+import technology.dice.dicewhere.api.api.IP;
 import technology.dice.dicewhere.api.api.IPResolver;
+import technology.dice.dicewhere.building.navigablemap.MapDbDatabaseBuilder;
+import technology.dice.dicewhere.building.sortedarray.SearchLayout;
 import technology.dice.dicewhere.provider.ProviderKey;
 import technology.dice.dicewhere.provider.dbip.reading.DbIpLineReader;
 import technology.dice.dicewhere.provider.dbip.reading.DbIpLocationAndIspLineReader;
@@ -28,9 +32,12 @@ import technology.dice.dicewhere.provider.maxmind.reading.MaxmindDbReader;
 import technology.dice.dicewhere.reading.LineReaderListener;
 import technology.dice.dicewhere.reading.RawLine;
 
+import com.google.common.net.InetAddresses;
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 @State(Scope.Thread)
@@ -45,7 +52,19 @@ public class IPResolverBenchmark {
       "/Users/zorg/Downloads/where/GeoIP2-City-CSV_20180911";
   private static final String RESOURCES_FOLDER = "/Users/zorg/Downloads/where";
 
+  @Param({"FILE", "SORTED_ARRAY"})
+  private MapDbDatabaseBuilder.StorageMode storageMode;
+
+  /** Only applies to SORTED_ARRAY, FILE is the NavigableMapIpDatabase baseline */
+  @Param({"SORTED", "EYTZINGER"})
+  private SearchLayout searchLayout;
+
+  @Param({"0", "100000"})
+  private long lookupCacheSize;
+
   private IPResolver resolver;
+  private IP[] ipV4s;
+  private IP[] zipfIpV4s;
 
   public static void main(String[] args) throws RunnerException {
 
@@ -75,6 +94,44 @@ public class IPResolverBenchmark {
     }
   }
 
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @Warmup(iterations = 5)
+  @Measurement(iterations = 5, time = 5, timeUnit = TimeUnit.MILLISECONDS)
+  public void testIPV4Parsed() {
+    for (IP ip : ipV4s) {
+      resolver.resolve(ip, MaxmindProviderKey.of());
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @Warmup(iterations = 5)
+  @Measurement(iterations = 5, time = 5, timeUnit = TimeUnit.MILLISECONDS)
+  public void testIPV4Country() {
+    for (IP ip : ipV4s) {
+      resolver.resolveCountry(ip, MaxmindProviderKey.of());
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @Warmup(iterations = 5)
+  @Measurement(iterations = 5, time = 5, timeUnit = TimeUnit.MILLISECONDS)
+  public void testIPV4Batch() {
+    resolver.resolveAll(Arrays.asList(ipV4s), MaxmindProviderKey.of());
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @Warmup(iterations = 5)
+  @Measurement(iterations = 5, time = 5, timeUnit = TimeUnit.MILLISECONDS)
+  public void testIPV4Zipf() {
+    for (IP ip : zipfIpV4s) {
+      resolver.resolve(ip, MaxmindProviderKey.of());
+    }
+  }
+
   @Benchmark
   @BenchmarkMode(Mode.SampleTime)
   @Warmup(iterations = 1)
@@ -94,10 +151,26 @@ public class IPResolverBenchmark {
         new MaxmindDbReader(
             Paths.get(MAXMIND_RESOURCES_FOLDER + "/GeoIP2-City-Locations-en.csv"),
             Paths.get(MAXMIND_RESOURCES_FOLDER + "/GeoIP2-City-Blocks-IPv4.csv"),
-            Paths.get(MAXMIND_RESOURCES_FOLDER + "/GeoIP2-City-Blocks-IPv6.csv"));
+            Paths.get(MAXMIND_RESOURCES_FOLDER + "/GeoIP2-City-Blocks-IPv6.csv"),
+            null,
+            storageMode);
 
     DbIpLineReader dbIpLineReader =
-        new DbIpLocationAndIspLineReader(Paths.get(RESOURCES_FOLDER + "/dbip-full-2018-09.csv"));
+        new DbIpLocationAndIspLineReader(
+            Paths.get(RESOURCES_FOLDER + "/dbip-full-2018-09.csv"), null, storageMode);
+    if (storageMode == MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY) {
+      maxmindDbReader.withSearchLayout(searchLayout);
+      dbIpLineReader.withSearchLayout(searchLayout);
+    }
+
+    ipV4s = new IP[4 * 255];
+    for (int i = 0; i < 4; ++i) {
+      for (int b = 0; b < 255; ++b) {
+        ipV4s[i * 255 + b] = new IP(InetAddresses.forString("192.168." + i + "." + b));
+      }
+    }
+
+    zipfIpV4s = zipfIpV4s(1_000_000, 1.0, 10_000);
 
     LineReaderListener lineReaderListener =
         new LineReaderListener() {
@@ -130,8 +203,31 @@ public class IPResolverBenchmark {
         new IPResolver.Builder()
             .withProvider(maxmindDbReader)
             .withProvider(dbIpLineReader)
-            .withReaderListener(lineReaderListener);
+            .withReaderListener(lineReaderListener)
+            .withLookupCache(lookupCacheSize);
 
     resolver = resolverBuilder.build();
   }
+
+  /**
+   * Draws IPs from a population of random IPs, where the k-th most popular one is looked up with a
+   * probability proportional to 1 / k^exponent, as real traffic tends to be
+   */
+  private static IP[] zipfIpV4s(int population, double exponent, int count) {
+    Random random = new Random(42);
+    IP[] ips = new IP[population];
+    double[] cumulative = new double[population];
+    double total = 0;
+    for (int k = 0; k < population; k++) {
+      ips[k] = IP.fromIpV4(random.nextInt());
+      total += 1 / Math.pow(k + 1, exponent);
+      cumulative[k] = total;
+    }
+    IP[] sample = new IP[count];
+    for (int i = 0; i < count; i++) {
+      int k = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+      sample[i] = ips[k >= 0 ? k : Math.min(-k - 1, population - 1)];
+    }
+    return sample;
+  }
 }
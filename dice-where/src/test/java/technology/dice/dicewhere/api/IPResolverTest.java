@@ -15,26 +15,42 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import com.google.common.net.InetAddresses;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import technology.dice.dicewhere.api.api.IP;
 import technology.dice.dicewhere.api.api.IPResolver;
 import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.api.api.LookupCacheStats;
+import technology.dice.dicewhere.api.api.ReloadListener;
 import technology.dice.dicewhere.api.exceptions.DuplicateProviderException;
 import technology.dice.dicewhere.api.exceptions.NoProvidersException;
 import technology.dice.dicewhere.api.exceptions.ProviderNotAvailableException;
+import technology.dice.dicewhere.api.exceptions.ProviderNotReadyException;
 import technology.dice.dicewhere.building.DatabaseBuilderListener;
+import technology.dice.dicewhere.building.IPDatabase;
+import technology.dice.dicewhere.lineprocessing.LineProcessorListener;
 import technology.dice.dicewhere.lineprocessing.SerializedLine;
 import technology.dice.dicewhere.provider.ProviderKey;
 import technology.dice.dicewhere.provider.dbip.DbIpProviderKey;
 import technology.dice.dicewhere.provider.dbip.reading.DbIpLocationAndIspLineReader;
 import technology.dice.dicewhere.provider.maxmind.MaxmindProviderKey;
 import technology.dice.dicewhere.provider.maxmind.reading.MaxmindDbReader;
+import technology.dice.dicewhere.reading.LineReaderListener;
+import technology.dice.dicewhere.reading.SourceReader;
 
 public class IPResolverTest {
 
@@ -86,6 +102,21 @@ public class IPResolverTest {
   }
 
   private IPResolver baseResolver() throws IOException {
+    return baseBuilder().build();
+  }
+
+  private IPResolver.Builder baseBuilder() throws IOException {
+    return maxmindBuilder()
+        .withProvider(
+            new DbIpLocationAndIspLineReader(
+                Paths.get(
+                    IPResolverTest.class
+                        .getClassLoader()
+                        .getResource("provider/dbip/tinyValid.csv")
+                        .getFile())));
+  }
+
+  private IPResolver.Builder maxmindBuilder() throws IOException {
     return new IPResolver.Builder()
         .withProvider(
             new MaxmindDbReader(
@@ -103,15 +134,498 @@ public class IPResolverTest {
                     IPResolverTest.class
                         .getClassLoader()
                         .getResource("provider/maxmind/tinyValidV6.csv")
-                        .getFile())))
-        .withProvider(
-            new DbIpLocationAndIspLineReader(
-                Paths.get(
-                    IPResolverTest.class
-                        .getClassLoader()
-                        .getResource("provider/dbip/tinyValid.csv")
-                        .getFile())))
-        .build();
+                        .getFile())));
+  }
+
+  @Test
+  public void resolveAllInInputOrder() throws IOException {
+    IPResolver resolver = baseResolver();
+    List<IP> ips =
+        Stream.of(
+                "2001:200:2:ffff:ffff:ffff:ffff:0000",
+                "1.0.8.17",
+                "88.55.48.100",
+                "1.0.8.17",
+                "0.255.255.255",
+                "1.0.15.255",
+                "2c0f:fff1::",
+                "1.0.3.100",
+                "1.0.8.0")
+            .map(ip -> new IP(InetAddresses.forString(ip)))
+            .collect(Collectors.toList());
+
+    Map<ProviderKey, List<Optional<IpInformation>>> results = resolver.resolveAll(ips);
+    for (ProviderKey provider : Arrays.asList(MaxmindProviderKey.of(), DbIpProviderKey.of())) {
+      List<Optional<IpInformation>> expected =
+          ips.stream().map(ip -> resolver.resolve(ip, provider)).collect(Collectors.toList());
+      assertEquals(expected, results.get(provider));
+      assertEquals(expected, resolver.resolveAll(ips, provider));
+    }
+  }
+
+  @Test
+  public void lookupCache() throws IOException {
+    IPResolver resolver = baseBuilder().withLookupCache(2).build();
+    IP ip = new IP(InetAddresses.forString("1.0.8.17"));
+    Map<ProviderKey, Optional<IpInformation>> first = resolver.resolve(ip);
+    assertEquals(baseResolver().resolve(ip), first);
+    assertEquals(first, resolver.resolve(ip));
+
+    Map<ProviderKey, LookupCacheStats> stats = resolver.lookupCacheStats();
+    assertEquals(2, stats.size());
+    assertEquals(1, stats.get(MaxmindProviderKey.of()).getHitCount());
+    assertEquals(1, stats.get(MaxmindProviderKey.of()).getMissCount());
+    assertEquals(0.5, stats.get(DbIpProviderKey.of()).getHitRate());
+
+    List<IP> batch =
+        Stream.of("1.0.8.17", "88.55.48.100", "2c0f:fff1::", "1.0.3.100")
+            .map(InetAddresses::forString)
+            .map(IP::new)
+            .collect(Collectors.toList());
+    assertEquals(
+        baseResolver().resolveAll(batch, MaxmindProviderKey.of()),
+        resolver.resolveAll(batch, MaxmindProviderKey.of()));
+    assertEquals(2, resolver.lookupCacheStats().get(MaxmindProviderKey.of()).getHitCount());
+    assertEquals(4, resolver.lookupCacheStats().get(MaxmindProviderKey.of()).getMissCount());
+  }
+
+  @Test
+  public void prefixCache() throws IOException {
+    IPResolver resolver = baseBuilder().withPrefixCache(16, 24, 48).withLookupCache(16).build();
+    IPResolver uncached = baseResolver();
+    for (String ip :
+        new String[] {
+          "1.0.8.17", "1.0.8.200", "1.0.3.100", "1.0.3.101", "88.55.48.100", "2c0f:fff1::"
+        }) {
+      assertEquals(uncached.resolve(ip), resolver.resolve(ip), ip);
+      assertEquals(uncached.resolve(ip), resolver.resolve(ip), ip);
+    }
+    assertEquals(2, resolver.prefixCacheStats().size());
+    assertTrue(uncached.prefixCacheStats().isEmpty());
+  }
+
+  @Test
+  public void normaliseEmbeddedIpV4() throws IOException {
+    IPResolver resolver = baseBuilder().normaliseEmbeddedIpV4(true).build();
+    IP ipV4 = new IP(InetAddresses.forString("1.0.8.17"));
+    Map<ProviderKey, Optional<IpInformation>> expected = resolver.resolve(ipV4);
+    assertTrue(expected.values().stream().allMatch(Optional::isPresent));
+
+    for (IP embedding :
+        new IP[] {
+          IP.fromIpV6(0, 0xFFFF_0100_0811L),
+          IP.fromIpV6(0, 0x0100_0811L),
+          IP.fromIpV6(0x2002_0100_0811_0000L, 1)
+        }) {
+      assertEquals(expected, resolver.resolve(embedding), embedding.toString());
+      assertEquals(
+          expected.get(MaxmindProviderKey.of()),
+          resolver.resolve(embedding, MaxmindProviderKey.of()));
+    }
+    assertEquals(6, resolver.reroutedLookups());
+    resolver.resolve(new IP(InetAddresses.forString("2c0f:fff1::")));
+    resolver.resolve(IP.fromIpV6(0, 1));
+    assertEquals(6, resolver.reroutedLookups());
+
+    IPResolver plain = baseResolver();
+    assertFalse(
+        plain.resolve(IP.fromIpV6(0, 0xFFFF_0100_0811L), MaxmindProviderKey.of()).isPresent());
+    assertEquals(0, plain.reroutedLookups());
+  }
+
+  @Test
+  public void resolveCountry() throws IOException {
+    IPResolver resolver = baseResolver();
+    IPResolver cached = baseBuilder().withLookupCache(16).withPrefixCache(16, 24, 48).build();
+    for (String ip : new String[] {"1.0.8.17", "1.0.16.0", "88.55.48.100", "2c0f:fff1::"}) {
+      for (ProviderKey provider : Arrays.asList(MaxmindProviderKey.of(), DbIpProviderKey.of())) {
+        Optional<String> expected =
+            resolver.resolve(ip, provider).map(IpInformation::getCountryCodeAlpha2);
+        assertEquals(expected, resolver.resolveCountry(ip, provider), ip);
+        assertEquals(expected, cached.resolveCountry(ip, provider), ip);
+        cached.resolve(ip, provider);
+        assertEquals(expected, cached.resolveCountry(ip, provider), ip);
+      }
+    }
+    assertEquals(Optional.of("CN"), resolver.resolveCountry("1.0.8.17", DbIpProviderKey.of()));
+  }
+
+  @Test
+  public void resolveCountryWithUnavailableProvider() {
+    assertThrows(
+        ProviderNotAvailableException.class,
+        () ->
+            new IPResolver.Builder()
+                .withProvider(
+                    new DbIpLocationAndIspLineReader(
+                        Paths.get(
+                            IPResolverTest.class
+                                .getClassLoader()
+                                .getResource("provider/dbip/tinyValid.csv")
+                                .getFile())))
+                .build()
+                .resolveCountry("1.0.8.17", MaxmindProviderKey.of()));
+  }
+
+  @Test
+  public void lookupCacheDisabledByDefault() throws IOException {
+    assertTrue(baseResolver().lookupCacheStats().isEmpty());
+  }
+
+  @Test
+  public void resolveAllWithUnavailableProvider() {
+    assertThrows(
+        ProviderNotAvailableException.class,
+        () ->
+            new IPResolver.Builder()
+                .withProvider(
+                    new DbIpLocationAndIspLineReader(
+                        Paths.get(
+                            IPResolverTest.class
+                                .getClassLoader()
+                                .getResource("provider/dbip/tinyValid.csv")
+                                .getFile())))
+                .build()
+                .resolveAll(
+                    Collections.singletonList(new IP(InetAddresses.forString("1.1.1.1"))),
+                    MaxmindProviderKey.of()));
+  }
+
+  @Test
+  public void reloadSwapsProvider() throws Exception {
+    List<String> reloads = new ArrayList<>();
+    IPResolver resolver =
+        baseBuilder()
+            .withLookupCache(16)
+            .withReloadListener(
+                new ReloadListener() {
+                  @Override
+                  public void reloaded(ProviderKey provider, long buildMillis, long peakHeapBytes) {
+                    assertTrue(buildMillis >= 0);
+                    assertTrue(peakHeapBytes > 0);
+                    reloads.add(provider.name());
+                  }
+                })
+            .build();
+    Optional<IpInformation> maxmind = resolver.resolve("1.0.8.17", MaxmindProviderKey.of());
+    assertFalse(resolver.resolve("1.0.0.1", DbIpProviderKey.of()).isPresent());
+    assertTrue(resolver.resolve("50.77.185.225", DbIpProviderKey.of()).isPresent());
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      resolver
+          .reloadAsync(
+              new DbIpLocationAndIspLineReader(
+                  Paths.get(
+                      IPResolverTest.class
+                          .getClassLoader()
+                          .getResource("provider/dbip/adjacentRanges.csv")
+                          .getFile())),
+              executor)
+          .toCompletableFuture()
+          .get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(Collections.singletonList(DbIpProviderKey.of().name()), reloads);
+    assertEquals(
+        Optional.of("AU"), resolver.resolveCountry("1.0.0.1", DbIpProviderKey.of()));
+    assertFalse(resolver.resolve("50.77.185.225", DbIpProviderKey.of()).isPresent());
+    assertEquals(maxmind, resolver.resolve("1.0.8.17", MaxmindProviderKey.of()));
+    assertEquals(2, resolver.lookupCacheStats().size());
+    assertEquals(0, resolver.lookupCacheStats().get(DbIpProviderKey.of()).getHitCount());
+  }
+
+  @Test
+  public void failedReloadKeepsPreviousDatabase() throws IOException {
+    List<Exception> failures = new ArrayList<>();
+    IPResolver resolver =
+        baseBuilder()
+            .withBuilderListener(
+                new DatabaseBuilderListener() {
+                  @Override
+                  public void lineOutOfOrder(
+                      ProviderKey provider, SerializedLine serializedLine, Exception e) {
+                    throw new RuntimeException(e);
+                  }
+                })
+            .withReloadListener(
+                new ReloadListener() {
+                  @Override
+                  public void reloadFailed(ProviderKey provider, Exception e) {
+                    failures.add(e);
+                  }
+                })
+            .build();
+    Map<ProviderKey, Optional<IpInformation>> expected = resolver.resolve("1.0.8.17");
+
+    assertThrows(
+        RuntimeException.class,
+        () ->
+            resolver.reload(
+                new DbIpLocationAndIspLineReader(
+                    Paths.get(
+                        IPResolverTest.class
+                            .getClassLoader()
+                            .getResource("provider/dbip/tinyNotSorted.csv")
+                            .getFile()))));
+    assertEquals(1, failures.size());
+    assertEquals(expected, resolver.resolve("1.0.8.17"));
+  }
+
+  @Test
+  public void reloadClosesPreviousDatabaseOnceReadsAreDone() throws Exception {
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ClosingDatabase first = new ClosingDatabase(reading, release);
+    ClosingDatabase second = new ClosingDatabase(null, null);
+    ClosingDatabase third = new ClosingDatabase(null, null);
+    IPResolver resolver = new IPResolver.Builder().withProvider(readerOf(first)).build();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      CompletionStage<Optional<IpInformation>> inFlight =
+          resolver.resolveAsync("1.0.8.17", DbIpProviderKey.of(), executor);
+      assertTrue(reading.await(10, TimeUnit.SECONDS));
+      resolver.reload(readerOf(second));
+      assertFalse(first.closed);
+
+      release.countDown();
+      inFlight.toCompletableFuture().get(10, TimeUnit.SECONDS);
+      assertTrue(first.closed);
+    } finally {
+      executor.shutdown();
+    }
+
+    resolver.reload(readerOf(third));
+    assertTrue(second.closed);
+    assertFalse(third.closed);
+    resolver.close();
+    assertTrue(third.closed);
+  }
+
+  private static SourceReader readerOf(IPDatabase database) {
+    return new SourceReader() {
+      @Override
+      public IPDatabase read(
+          boolean retainOriginalLine,
+          LineReaderListener readerListener,
+          LineProcessorListener processListener,
+          DatabaseBuilderListener buildingListener,
+          int workersCount) {
+        return database;
+      }
+
+      @Override
+      public ProviderKey provider() {
+        return DbIpProviderKey.of();
+      }
+    };
+  }
+
+  /** Optionally holds lookups until released, and records whether it was closed */
+  private static final class ClosingDatabase implements IPDatabase {
+    private final CountDownLatch reading;
+    private final CountDownLatch release;
+    private volatile boolean closed;
+
+    private ClosingDatabase(CountDownLatch reading, CountDownLatch release) {
+      this.reading = reading;
+      this.release = release;
+    }
+
+    @Override
+    public Optional<IpInformation> get(IP ip) {
+      if (reading != null) {
+        reading.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return Optional.empty();
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  @Test
+  public void reloadWithUnavailableProvider() {
+    assertThrows(
+        ProviderNotAvailableException.class,
+        () ->
+            new IPResolver.Builder()
+                .withProvider(
+                    new DbIpLocationAndIspLineReader(
+                        Paths.get(
+                            IPResolverTest.class
+                                .getClassLoader()
+                                .getResource("provider/dbip/tinyValid.csv")
+                                .getFile())))
+                .build()
+                .reload(
+                    new MaxmindDbReader(
+                        Paths.get(
+                            IPResolverTest.class
+                                .getClassLoader()
+                                .getResource("provider/maxmind/GeoLite2-City-Locations-en.csv.zip")
+                                .getFile()),
+                        Paths.get(
+                            IPResolverTest.class
+                                .getClassLoader()
+                                .getResource("provider/maxmind/tinyValidV4.csv")
+                                .getFile()),
+                        Paths.get(
+                            IPResolverTest.class
+                                .getClassLoader()
+                                .getResource("provider/maxmind/tinyValidV6.csv")
+                                .getFile()))));
+  }
+
+  @Test
+  public void concurrentBuild() throws IOException {
+    IPResolver resolver = baseBuilder().withBuildConcurrency(2).build();
+    IPResolver sequential = baseResolver();
+    for (String ip : new String[] {"1.0.8.17", "1.0.16.0", "88.55.48.100", "2c0f:fff1::"}) {
+      assertEquals(sequential.resolve(ip), resolver.resolve(ip), ip);
+    }
+  }
+
+  @Test
+  public void concurrentBuildFailsWithAnyProvider() {
+    assertThrows(
+        RuntimeException.class,
+        () ->
+            new IPResolver.Builder()
+                .withProvider(
+                    new MaxmindDbReader(
+                        Paths.get(
+                            IPResolverTest.class
+                                .getClassLoader()
+                                .getResource("provider/maxmind/GeoLite2-City-Locations-en.csv.zip")
+                                .getFile()),
+                        Paths.get(
+                            IPResolverTest.class
+                                .getClassLoader()
+                                .getResource("provider/maxmind/tinyValidV4.csv")
+                                .getFile()),
+                        Paths.get(
+                            IPResolverTest.class
+                                .getClassLoader()
+                                .getResource("provider/maxmind/tinyValidV6.csv")
+                                .getFile())))
+                .withProvider(
+                    new DbIpLocationAndIspLineReader(
+                        Paths.get(
+                            IPResolverTest.class
+                                .getClassLoader()
+                                .getResource("provider/dbip/tinyNotSorted.csv")
+                                .getFile())))
+                .withBuildConcurrency(2)
+                .build());
+    assertThrows(
+        IllegalArgumentException.class, () -> new IPResolver.Builder().withBuildConcurrency(0));
+  }
+
+  @Test
+  public void buildAsync() throws Exception {
+    IPResolver resolver = baseBuilder().buildAsync();
+    resolver.whenReady(MaxmindProviderKey.of()).get(10, TimeUnit.SECONDS);
+    resolver.whenReady(DbIpProviderKey.of()).get(10, TimeUnit.SECONDS);
+    assertTrue(resolver.isReady(MaxmindProviderKey.of()));
+    assertTrue(resolver.isReady(DbIpProviderKey.of()));
+    assertEquals(baseResolver().resolve("1.0.8.17"), resolver.resolve("1.0.8.17"));
+    assertThrows(
+        ProviderNotAvailableException.class,
+        () ->
+            new IPResolver.Builder()
+                .withProvider(
+                    new DbIpLocationAndIspLineReader(
+                        Paths.get(
+                            IPResolverTest.class
+                                .getClassLoader()
+                                .getResource("provider/dbip/tinyValid.csv")
+                                .getFile())))
+                .buildAsync()
+                .whenReady(MaxmindProviderKey.of()));
+  }
+
+  @Test
+  public void resolveWhileLoading() throws Exception {
+    CountDownLatch dbIpStarts = new CountDownLatch(1);
+    SourceReader dbIp =
+        new DbIpLocationAndIspLineReader(
+            Paths.get(
+                IPResolverTest.class
+                    .getClassLoader()
+                    .getResource("provider/dbip/tinyValid.csv")
+                    .getFile()));
+    SourceReader slowDbIp =
+        new SourceReader() {
+          @Override
+          public IPDatabase read(
+              boolean retainOriginalLine,
+              LineReaderListener readerListener,
+              LineProcessorListener processListener,
+              DatabaseBuilderListener buildingListener,
+              int workersCount) {
+            try {
+              dbIpStarts.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+            return dbIp.read(
+                retainOriginalLine, readerListener, processListener, buildingListener, workersCount);
+          }
+
+          @Override
+          public ProviderKey provider() {
+            return dbIp.provider();
+          }
+        };
+    IPResolver resolver =
+        maxmindBuilder().withProvider(slowDbIp).withBuildConcurrency(2).buildAsync();
+
+    resolver.whenReady(MaxmindProviderKey.of()).get(10, TimeUnit.SECONDS);
+    assertFalse(resolver.isReady(DbIpProviderKey.of()));
+    assertTrue(resolver.resolve("1.0.8.17", MaxmindProviderKey.of()).isPresent());
+    assertEquals(
+        Collections.singleton(MaxmindProviderKey.of()), resolver.resolve("1.0.8.17").keySet());
+    assertThrows(
+        ProviderNotReadyException.class,
+        () -> resolver.resolve("1.0.8.17", DbIpProviderKey.of()));
+
+    dbIpStarts.countDown();
+    resolver.whenReady(DbIpProviderKey.of()).get(10, TimeUnit.SECONDS);
+    assertEquals(baseResolver().resolve("1.0.8.17"), resolver.resolve("1.0.8.17"));
+  }
+
+  @Test
+  public void buildAsyncWithFailingProvider() throws Exception {
+    IPResolver resolver =
+        new IPResolver.Builder()
+            .withProvider(
+                new DbIpLocationAndIspLineReader(
+                    Paths.get(
+                        IPResolverTest.class
+                            .getClassLoader()
+                            .getResource("provider/dbip/tinyNotSorted.csv")
+                            .getFile())))
+            .buildAsync();
+    ExecutionException failure =
+        assertThrows(
+            ExecutionException.class,
+            () -> resolver.whenReady(DbIpProviderKey.of()).get(10, TimeUnit.SECONDS));
+    assertTrue(failure.getCause() instanceof RuntimeException);
+    assertFalse(resolver.isReady(DbIpProviderKey.of()));
+    assertThrows(
+        ProviderNotAvailableException.class,
+        () -> resolver.resolve("1.0.8.17", DbIpProviderKey.of()));
   }
 
   @Test
@@ -6,7 +6,11 @@
 
 package technology.dice.dicewhere.api;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -15,7 +19,6 @@ import java.net.InetAddress;
 import org.junit.jupiter.api.Test;
 import technology.dice.dicewhere.api.api.IP;
 
-// TODO: add ipv6 tests
 public class IPTest {
   @Test
   public void bytesCtorNull() {
@@ -54,6 +57,97 @@ public class IPTest {
     assertFalse(anIP.isGreaterThan(higherIp));
     assertFalse(anIP.equals(higherIp));
   }
+
+  @Test
+  public void tooLong() {
+    assertThrows(IllegalArgumentException.class, () -> new IP(new byte[17]));
+  }
+
+  @Test
+  public void ipV4BeforeIpV6() {
+    IP ipV4 = new IP(InetAddresses.forString("255.255.255.255"));
+    IP ipV6 = new IP(InetAddresses.forString("::1"));
+    assertTrue(ipV4.isLowerThan(ipV6));
+    assertTrue(ipV6.isGreaterThan(ipV4));
+  }
+
+  @Test
+  public void ipV6Ordering() {
+    IP anIP = new IP(InetAddresses.forString("2001:db8::ffff:ffff:ffff:ffff"));
+    IP higherIp = new IP(InetAddresses.forString("2001:db8:0:1::"));
+    IP highestIp = new IP(InetAddresses.forString("ffff::"));
+    assertTrue(anIP.isLowerThan(higherIp));
+    assertTrue(higherIp.isLowerThan(highestIp));
+    assertEquals(
+        0, anIP.compareTo(new IP(InetAddresses.forString("2001:db8::ffff:ffff:ffff:ffff"))));
+  }
+
+  @Test
+  public void equalsAndHashCode() {
+    IP anIP = new IP(InetAddresses.forString("2001:db8::1"));
+    IP sameIp = IP.fromIpV6(0x20010db800000000L, 1);
+    assertEquals(anIP, sameIp);
+    assertEquals(anIP.hashCode(), sameIp.hashCode());
+    assertEquals(new IP(InetAddresses.forString("255.0.0.1")), IP.fromIpV4(0xff000001));
+    assertNotEquals(new IP(new byte[4]), new IP(new byte[16]));
+  }
+
+  @Test
+  public void nextAndPrevious() {
+    assertEquals(
+        new IP(InetAddresses.forString("1.1.2.0")),
+        new IP(InetAddresses.forString("1.1.1.255")).next());
+    assertEquals(
+        new IP(InetAddresses.forString("1.1.1.255")),
+        new IP(InetAddresses.forString("1.1.2.0")).previous());
+    assertEquals(
+        new IP(InetAddresses.forString("2001:db8:0:1::")),
+        new IP(InetAddresses.forString("2001:db8::ffff:ffff:ffff:ffff")).next());
+    assertEquals(
+        new IP(InetAddresses.forString("2001:db8::ffff:ffff:ffff:ffff")),
+        new IP(InetAddresses.forString("2001:db8:0:1::")).previous());
+    assertEquals(
+        new IP(InetAddresses.forString("1.1.1.10")),
+        new IP(InetAddresses.forString("1.1.1.20")).increment(-10));
+  }
+
+  @Test
+  public void outOfRange() {
+    assertThrows(
+        ArithmeticException.class, () -> new IP(InetAddresses.forString("255.255.255.255")).next());
+    assertThrows(ArithmeticException.class, () -> new IP(new byte[4]).previous());
+    assertThrows(
+        ArithmeticException.class,
+        () -> new IP(InetAddresses.forString("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff")).next());
+    assertThrows(ArithmeticException.class, () -> new IP(new byte[16]).previous());
+    assertThrows(ArithmeticException.class, () -> new IP(new byte[7]).previous());
+  }
+
+  @Test
+  public void toStringIsTheAddress() {
+    assertEquals("1.0.8.17", new IP(InetAddresses.forString("1.0.8.17")).toString());
+    assertEquals("2001:db8::1", new IP(InetAddresses.forString("2001:db8::1")).toString());
+  }
+
+  @Test
+  public void bytesAreCopies() {
+    byte[] bytes = {1, 0, 8, 17};
+    IP ip = new IP(bytes);
+    bytes[3] = 18;
+    ip.getBytes()[3] = 19;
+    assertArrayEquals(new byte[] {1, 0, 8, 17}, ip.getBytes());
+    assertEquals(4, ip.getLength());
+    assertEquals(16, IP.fromIpV6(0, 1).getLength());
+  }
+
+  @Test
+  public void inetAddressIsBuiltOnce() {
+    IP ip = IP.fromIpV6(0x20010db800000000L, 1);
+    InetAddress address = ip.toInetAddress();
+    assertEquals(InetAddresses.forString("2001:db8::1"), address);
+    assertSame(address, ip.toInetAddress());
+    assertEquals(InetAddresses.forString("1.0.8.17"), IP.fromIpV4(0x01000811).toInetAddress());
+  }
   //
   //  @Test
   //  public void ipv6Bounds() {
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.api.api.LookupCacheStats;
+
+public class CachedIpDatabaseTest {
+
+  @Test
+  public void cachesHitsAndMisses() {
+    CountingDatabase database = new CountingDatabase();
+    CachedIpDatabase cached = new CachedIpDatabase(database, 10);
+    IP covered = IP.fromIpV4(42);
+    IP notCovered = IP.fromIpV4(43);
+
+    Optional<IpInformation> first = cached.get(covered);
+    assertSame(first, cached.get(covered));
+    assertEquals(Optional.empty(), cached.get(notCovered));
+    assertEquals(Optional.empty(), cached.get(notCovered));
+
+    assertEquals(2, database.lookups.get());
+    LookupCacheStats stats = cached.stats();
+    assertEquals(2, stats.getHitCount());
+    assertEquals(2, stats.getMissCount());
+    assertEquals(0.5, stats.getHitRate());
+  }
+
+  @Test
+  public void batchLoadsOnlyMissingIps() {
+    CountingDatabase database = new CountingDatabase();
+    CachedIpDatabase cached = new CachedIpDatabase(database, 10);
+    cached.get(IP.fromIpV4(42));
+
+    List<IP> batch = Arrays.asList(IP.fromIpV4(44), IP.fromIpV4(42), IP.fromIpV4(43));
+    List<Optional<IpInformation>> results = cached.getAll(batch);
+    assertEquals(1, database.batches.get());
+    assertEquals(2, database.batchedLookups.get());
+    for (int i = 0; i < batch.size(); i++) {
+      assertEquals(database.lookup(batch.get(i)), results.get(i));
+    }
+  }
+
+  @Test
+  public void concurrentLookups() throws InterruptedException, ExecutionException {
+    CountingDatabase database = new CountingDatabase();
+    CachedIpDatabase cached = new CachedIpDatabase(database, 100);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < 8; thread++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 10_000; i++) {
+                    IP ip = IP.fromIpV4(i % 200);
+                    assertEquals(database.lookup(ip), cached.get(ip));
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    LookupCacheStats stats = cached.stats();
+    assertEquals(80_000, stats.getHitCount() + stats.getMissCount());
+  }
+
+  @Test
+  public void sizeMustBePositive() {
+    assertThrows(
+        IllegalArgumentException.class, () -> new CachedIpDatabase(new CountingDatabase(), 0));
+  }
+
+  /** Database covering even IPs, counting the lookups that reach it */
+  private static class CountingDatabase implements IPDatabase {
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AtomicInteger batches = new AtomicInteger();
+    private final AtomicInteger batchedLookups = new AtomicInteger();
+
+    @Override
+    public Optional<IpInformation> get(IP ip) {
+      lookups.incrementAndGet();
+      return lookup(ip);
+    }
+
+    @Override
+    public List<Optional<IpInformation>> getAll(List<IP> ips) {
+      batches.incrementAndGet();
+      batchedLookups.addAndGet(ips.size());
+      List<Optional<IpInformation>> results = new ArrayList<>();
+      for (IP ip : ips) {
+        results.add(lookup(ip));
+      }
+      return results;
+    }
+
+    private Optional<IpInformation> lookup(IP ip) {
+      if (ip.getLow() % 2 != 0) {
+        return Optional.empty();
+      }
+      return Optional.of(
+          IpInformation.builder()
+              .withCountryCodeAlpha2("PT")
+              .withStartOfRange(ip)
+              .withEndOfRange(ip)
+              .build());
+    }
+  }
+}
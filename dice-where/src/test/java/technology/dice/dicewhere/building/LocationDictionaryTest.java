@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import com.google.common.net.InetAddresses;
+import org.junit.jupiter.api.Test;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+
+public class LocationDictionaryTest {
+
+  @Test
+  public void sameLocationStoredOnce() {
+    LocationDictionary dictionary = new LocationDictionary();
+    int first = dictionary.locationId(range("1.0.0.0", "1.0.0.255", "GB", "London", "line 1"));
+    int second = dictionary.locationId(range("1.0.1.0", "1.0.1.255", "GB", "London", "line 2"));
+    int other = dictionary.locationId(range("1.0.2.0", "1.0.2.255", "GB", "Leeds", "line 3"));
+
+    assertEquals(first, second);
+    assertNotEquals(first, other);
+    assertEquals(2, dictionary.size());
+  }
+
+  @Test
+  public void decodesLocationFields() {
+    LocationDictionary dictionary = new LocationDictionary();
+    IpInformation original =
+        IpInformation.builder(range("1.0.0.0", "1.0.0.255", "GB", "London", null))
+            .withCityGeonameId("2643743")
+            .withLeastSpecificDivision("England")
+            .withMostSpecificDivision("Greater London")
+            .withPostcode("W1B")
+            .isVpn(true)
+            .build();
+    int id = dictionary.locationId(original);
+
+    IpInformation decoded =
+        LocationDictionary.decode(dictionary.locations().get(id))
+            .withStartOfRange(original.getStartOfRange())
+            .withEndOfRange(original.getEndOfRange())
+            .build();
+    assertEquals(original, decoded);
+  }
+
+  private IpInformation range(
+      String start, String end, String country, String city, String originalLine) {
+    return IpInformation.builder()
+        .withCountryCodeAlpha2(country)
+        .withCity(city)
+        .withStartOfRange(new IP(InetAddresses.forString(start)))
+        .withEndOfRange(new IP(InetAddresses.forString(end)))
+        .withOriginalLine(originalLine)
+        .build();
+  }
+}
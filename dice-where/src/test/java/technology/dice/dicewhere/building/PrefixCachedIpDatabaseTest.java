@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.common.net.InetAddresses;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+
+public class PrefixCachedIpDatabaseTest {
+
+  @Test
+  public void fullyCoveredPrefixServedFromOneEntry() {
+    RangesDatabase database = new RangesDatabase().withRange("10.0.0.0", "10.0.1.255", "PT");
+    PrefixCachedIpDatabase cached = new PrefixCachedIpDatabase(database, 10, 24, 48);
+
+    Optional<IpInformation> first = cached.get(ip("10.0.0.1"));
+    assertEquals("PT", first.get().getCountryCodeAlpha2());
+    assertEquals(first, cached.get(ip("10.0.0.200")));
+    assertEquals(first, cached.get(ip("10.0.0.255")));
+    assertEquals(1, database.lookups.get());
+
+    cached.get(ip("10.0.1.7"));
+    cached.get(ip("10.0.1.8"));
+    assertEquals(2, database.lookups.get());
+    assertEquals(3, cached.stats().getHitCount());
+  }
+
+  @Test
+  public void partiallyCoveredPrefixFallsThrough() {
+    RangesDatabase database =
+        new RangesDatabase()
+            .withRange("10.0.2.0", "10.0.2.127", "PT")
+            .withRange("10.0.2.128", "10.0.3.10", "ES");
+    PrefixCachedIpDatabase cached = new PrefixCachedIpDatabase(database, 10, 24, 48);
+
+    for (int i = 0; i < 2; i++) {
+      assertEquals("PT", cached.get(ip("10.0.2.1")).get().getCountryCodeAlpha2());
+      assertEquals("ES", cached.get(ip("10.0.2.200")).get().getCountryCodeAlpha2());
+      assertEquals("ES", cached.get(ip("10.0.3.1")).get().getCountryCodeAlpha2());
+      assertEquals(Optional.empty(), cached.get(ip("10.0.3.11")));
+      assertEquals(Optional.empty(), cached.get(ip("10.0.4.1")));
+    }
+    assertEquals(10, database.lookups.get());
+    assertEquals(0, cached.stats().getHitCount());
+  }
+
+  @Test
+  public void ipV6Prefixes() {
+    RangesDatabase database =
+        new RangesDatabase()
+            .withRange("2001:db8::", "2001:db8:0:ffff:ffff:ffff:ffff:ffff", "PT")
+            .withRange("2001:db8:1::", "2001:db8:1::ffff", "ES");
+    PrefixCachedIpDatabase cached = new PrefixCachedIpDatabase(database, 10, 24, 48);
+
+    assertEquals("PT", cached.get(ip("2001:db8::1")).get().getCountryCodeAlpha2());
+    assertEquals("PT", cached.get(ip("2001:db8:0:1234::1")).get().getCountryCodeAlpha2());
+    assertEquals(1, database.lookups.get());
+
+    assertEquals("ES", cached.get(ip("2001:db8:1::1")).get().getCountryCodeAlpha2());
+    assertEquals(Optional.empty(), cached.get(ip("2001:db8:1::1:0")));
+    assertEquals(3, database.lookups.get());
+  }
+
+  @Test
+  public void invalidPrefixLengths() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new PrefixCachedIpDatabase(new RangesDatabase(), 10, 0, 48));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new PrefixCachedIpDatabase(new RangesDatabase(), 10, 24, 65));
+  }
+
+  private static IP ip(String ip) {
+    return new IP(InetAddresses.forString(ip));
+  }
+
+  private static class RangesDatabase implements IPDatabase {
+    private final TreeMap<IP, IpInformation> ranges = new TreeMap<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    private RangesDatabase withRange(String start, String end, String country) {
+      ranges.put(
+          ip(start),
+          IpInformation.builder()
+              .withCountryCodeAlpha2(country)
+              .withStartOfRange(ip(start))
+              .withEndOfRange(ip(end))
+              .build());
+      return this;
+    }
+
+    @Override
+    public Optional<IpInformation> get(IP ip) {
+      lookups.incrementAndGet();
+      Map.Entry<IP, IpInformation> floor = ranges.floorEntry(ip);
+      if (floor == null || floor.getValue().getEndOfRange().compareTo(ip) < 0) {
+        return Optional.empty();
+      }
+      return Optional.of(floor.getValue());
+    }
+  }
+}
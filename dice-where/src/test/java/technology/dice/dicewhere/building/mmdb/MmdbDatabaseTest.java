@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.mmdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.net.InetAddresses;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.api.api.LookupCacheStats;
+
+public class MmdbDatabaseTest {
+  private static final IP IP_V4 = new IP(InetAddresses.forString("1.0.8.17"));
+  private static final IpInformation LOCATION =
+      IpInformation.builder()
+          .withCountryCodeAlpha2("CN")
+          .withStartOfRange(new IP(InetAddresses.forString("1.0.8.0")))
+          .withEndOfRange(new IP(InetAddresses.forString("1.0.15.255")))
+          .build();
+
+  @Test
+  public void concurrentLookupsShareDecode() throws Exception {
+    SingleFlight flights = new SingleFlight(1, TimeUnit.MINUTES, 100);
+    AtomicInteger decodes = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(8);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Optional<IpInformation>>> lookups = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        lookups.add(
+            executor.submit(
+                () -> {
+                  started.countDown();
+                  started.await();
+                  return flights.get(
+                      IP_V4,
+                      ip -> {
+                        decodes.incrementAndGet();
+                        awaitWaiting(flights, 7);
+                        return Optional.of(LOCATION);
+                      });
+                }));
+      }
+      for (Future<Optional<IpInformation>> lookup : lookups) {
+        assertEquals(Optional.of(LOCATION), lookup.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(1, decodes.get());
+    LookupCacheStats stats = flights.stats();
+    assertEquals(7, stats.getHitCount());
+    assertEquals(1, stats.getMissCount());
+    assertEquals(7 / 8.0, stats.getHitRate());
+  }
+
+  @Test
+  public void failedDecodeIsNotKept() {
+    AtomicInteger decodes = new AtomicInteger();
+    MmdbDatabase database =
+        new MmdbDatabase(
+                "test",
+                ip -> {
+                  if (decodes.incrementAndGet() == 1) {
+                    throw new IllegalStateException("corrupt record");
+                  }
+                  return Optional.of(LOCATION);
+                })
+            .withSingleFlight(1, TimeUnit.MINUTES, 100);
+
+    assertThrows(IllegalStateException.class, () -> database.get(IP_V4));
+    assertEquals(Optional.of(LOCATION), database.get(IP_V4));
+    assertEquals(Optional.of(LOCATION), database.get(IP_V4));
+    assertEquals(2, decodes.get());
+    assertEquals(1, database.coalescingStats().get().getHitCount());
+  }
+
+  @Test
+  public void failedDecodeReleasesWaitingLookups() throws Exception {
+    SingleFlight flights = new SingleFlight(0, TimeUnit.MINUTES, 100);
+    AtomicInteger decodes = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(4);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Optional<IpInformation>>> lookups = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        lookups.add(
+            executor.submit(
+                () -> {
+                  started.countDown();
+                  started.await();
+                  return flights.get(
+                      IP_V4,
+                      ip -> {
+                        decodes.incrementAndGet();
+                        awaitWaiting(flights, 3);
+                        throw new AssertionError("corrupt record");
+                      });
+                }));
+      }
+      for (Future<Optional<IpInformation>> lookup : lookups) {
+        ExecutionException e =
+            assertThrows(ExecutionException.class, () -> lookup.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof AssertionError);
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    // every lookup but the decoding one failed with the shared decode, rather than its own
+    assertEquals(1, decodes.get());
+  }
+
+  @Test
+  public void singleFlightOffByDefault() {
+    AtomicInteger decodes = new AtomicInteger();
+    MmdbDatabase database =
+        new MmdbDatabase(
+            "test",
+            ip -> {
+              decodes.incrementAndGet();
+              return Optional.of(LOCATION);
+            });
+
+    database.get(IP_V4);
+    database.get(IP_V4);
+    assertEquals(2, decodes.get());
+    assertFalse(database.coalescingStats().isPresent());
+  }
+
+  /** Holds a decode until the given number of lookups are waiting for it */
+  private static void awaitWaiting(SingleFlight flights, int lookups) {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (flights.waiting() < lookups) {
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("Lookups never joined the decode");
+      }
+      Thread.yield();
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.InetAddresses;
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IPResolver;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.building.DatabaseBuilderListener;
+import technology.dice.dicewhere.building.IPDatabase;
+import technology.dice.dicewhere.building.navigablemap.MapDbDatabaseBuilder;
+import technology.dice.dicewhere.lineprocessing.LineProcessorListener;
+import technology.dice.dicewhere.provider.ProviderKey;
+import technology.dice.dicewhere.provider.dbip.DbIpProviderKey;
+import technology.dice.dicewhere.provider.dbip.reading.DbIpLocationAndIspLineReader;
+import technology.dice.dicewhere.provider.maxmind.MaxmindProviderKey;
+import technology.dice.dicewhere.provider.maxmind.reading.MaxmindDbReader;
+import technology.dice.dicewhere.reading.CSVLineReader;
+import technology.dice.dicewhere.reading.LineReaderListener;
+import technology.dice.dicewhere.reading.SourceReader;
+
+public class FusedRangeIndexTest {
+
+  @Test
+  public void sameResultsAsIndependentLookups() throws IOException {
+    Path dbIp = getPath("provider/dbip/tinyValid.csv");
+    Path v4 = getPath("provider/maxmind/tinyValidV4.csv");
+    Path v6 = getPath("provider/maxmind/tinyValidV6.csv");
+    Map<ProviderKey, IPDatabase> databases =
+        ImmutableMap.of(
+            DbIpProviderKey.of(),
+            read(
+                new DbIpLocationAndIspLineReader(
+                    dbIp, null, MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)),
+            MaxmindProviderKey.of(),
+            read(
+                new MaxmindDbReader(
+                    getPath("provider/maxmind/GeoLite2-City-Locations-en.csv.zip"),
+                    v4,
+                    v6,
+                    null,
+                    MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)));
+
+    List<IP> probes = new ArrayList<>();
+    for (String line : Files.readAllLines(dbIp)) {
+      String[] fields = line.split(",");
+      addProbes(
+          probes,
+          new IP(InetAddresses.forString(fields[0])),
+          new IP(InetAddresses.forString(fields[1])));
+    }
+    for (Path csv : new Path[] {v4, v6}) {
+      List<String> lines = Files.readAllLines(csv);
+      for (String line : lines.subList(1, lines.size())) {
+        IPAddress network = new IPAddressString(line.split(",")[0]).getAddress();
+        addProbes(
+            probes, new IP(network.getLower().getBytes()), new IP(network.toMaxHost().getBytes()));
+      }
+    }
+    probes.add(new IP(InetAddresses.forString("0.0.0.0")));
+    probes.add(new IP(InetAddresses.forString("255.255.255.255")));
+    probes.add(new IP(InetAddresses.forString("::")));
+    probes.add(new IP(InetAddresses.forString("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff")));
+
+    FusedRangeIndex index = FusedRangeIndex.of(databases);
+    for (IP probe : probes) {
+      Map<ProviderKey, Optional<IpInformation>> fused = index.resolve(probe);
+      assertEquals(databases.size(), fused.size());
+      for (Map.Entry<ProviderKey, IPDatabase> database : databases.entrySet()) {
+        assertEquals(
+            database.getValue().get(probe),
+            fused.get(database.getKey()),
+            database.getKey().name() + " lookup of " + probe);
+      }
+    }
+  }
+
+  @Test
+  public void resolverUsesFusedIndex() throws IOException {
+    IPResolver resolver =
+        new IPResolver.Builder()
+            .withProvider(
+                new DbIpLocationAndIspLineReader(
+                    getPath("provider/dbip/tinyValid.csv"),
+                    null,
+                    MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY))
+            .fuseProviders(true)
+            .build();
+
+    Map<ProviderKey, Optional<IpInformation>> result = resolver.resolve("1.0.8.17");
+    assertEquals(1, result.size());
+    assertEquals(
+        resolver.resolve("1.0.8.17", DbIpProviderKey.of()), result.get(DbIpProviderKey.of()));
+    assertEquals("CN", result.get(DbIpProviderKey.of()).get().getCountryCodeAlpha2());
+  }
+
+  @Test
+  public void onlySortedArraysCanBeFused() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            new IPResolver.Builder()
+                .withProvider(
+                    new DbIpLocationAndIspLineReader(
+                        getPath("provider/dbip/tinyValid.csv"),
+                        null,
+                        MapDbDatabaseBuilder.StorageMode.HEAP))
+                .fuseProviders(true)
+                .build());
+  }
+
+  @Test
+  public void unfusableProvidersAreRejectedBeforeReading() {
+    IllegalArgumentException e =
+        assertThrows(
+            IllegalArgumentException.class,
+            () ->
+                new IPResolver.Builder()
+                    .withProvider(
+                        new DbIpLocationAndIspLineReader(
+                            Paths.get("missing.csv"), null, MapDbDatabaseBuilder.StorageMode.HEAP))
+                    .fuseProviders(true)
+                    .build());
+    assertEquals("Provider DbIp must be stored as sorted arrays to be fused", e.getMessage());
+  }
+
+  @Test
+  public void databasesAreClosedWhenFusingFails() {
+    AtomicBoolean closed = new AtomicBoolean();
+    IPDatabase database =
+        new IPDatabase() {
+          @Override
+          public Optional<IpInformation> get(IP ip) {
+            return Optional.empty();
+          }
+
+          @Override
+          public void close() {
+            closed.set(true);
+          }
+        };
+    SourceReader reader =
+        new SourceReader() {
+          @Override
+          public IPDatabase read(
+              boolean retainOriginalLine,
+              LineReaderListener readerListener,
+              LineProcessorListener processListener,
+              DatabaseBuilderListener buildingListener,
+              int workersCount) {
+            return database;
+          }
+
+          @Override
+          public ProviderKey provider() {
+            return DbIpProviderKey.of();
+          }
+        };
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new IPResolver.Builder().withProvider(reader).fuseProviders(true).build());
+    assertTrue(closed.get());
+  }
+
+  private void addProbes(List<IP> probes, IP start, IP end) {
+    probes.add(start);
+    probes.add(end);
+    if (!end.equals(new IP(InetAddresses.forString("255.255.255.255")))) {
+      probes.add(end.next());
+    }
+    if (!start.equals(new IP(new byte[start.getBytes().length]))) {
+      probes.add(start.previous());
+    }
+  }
+
+  private IPDatabase read(CSVLineReader reader) {
+    return reader.read(
+        false,
+        new LineReaderListener() {},
+        new LineProcessorListener() {},
+        new DatabaseBuilderListener() {},
+        4);
+  }
+
+  private Path getPath(String location) {
+    return Paths.get(FusedRangeIndexTest.class.getClassLoader().getResource(location).getFile());
+  }
+}
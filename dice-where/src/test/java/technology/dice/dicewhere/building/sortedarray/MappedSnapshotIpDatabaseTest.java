@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.google.common.net.InetAddresses;
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IPResolver;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.building.DatabaseBuilderListener;
+import technology.dice.dicewhere.building.RangeIpDatabase;
+import technology.dice.dicewhere.building.navigablemap.MapDbDatabaseBuilder;
+import technology.dice.dicewhere.lineprocessing.LineProcessorListener;
+import technology.dice.dicewhere.provider.dbip.DbIpProviderKey;
+import technology.dice.dicewhere.provider.dbip.reading.DbIpLocationAndIspLineReader;
+import technology.dice.dicewhere.provider.maxmind.MaxmindProviderKey;
+import technology.dice.dicewhere.provider.maxmind.reading.MaxmindDbReader;
+import technology.dice.dicewhere.reading.LineReaderListener;
+import technology.dice.dicewhere.utils.IPUtils;
+
+public class MappedSnapshotIpDatabaseTest {
+  @TempDir Path folder;
+
+  @Test
+  public void sameResultsAsSortedArray() throws IOException {
+    Path snapshot = folder.resolve("maxmind.snapshot");
+    Path v4 = getPath("provider/maxmind/tinyValidV4.csv");
+    Path v6 = getPath("provider/maxmind/tinyValidV6.csv");
+    RangeIpDatabase expected =
+        new MaxmindDbReader(
+                getPath("provider/maxmind/GeoLite2-City-Locations-en.csv.zip"),
+                v4,
+                v6,
+                null,
+                MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)
+            .withSnapshot(snapshot)
+            .read(
+                true,
+                new LineReaderListener() {},
+                new LineProcessorListener() {},
+                new DatabaseBuilderListener() {},
+                4);
+
+    MappedSnapshotIpDatabase actual = MappedSnapshotIpDatabase.open(snapshot);
+    assertEquals(MaxmindProviderKey.of(), actual.provider());
+    assertEquals(expected.size(), actual.size());
+    for (Path csv : new Path[] {v4, v6}) {
+      for (String line : Files.lines(csv).skip(1).collect(Collectors.toList())) {
+        IPAddress network = new IPAddressString(line.split(",")[0]).getAddress();
+        IP start = new IP(network.getLower().getBytes());
+        IP end = new IP(network.toMaxHost().getBytes());
+        for (IP probe : Arrays.asList(start, end, IPUtils.increment(end))) {
+          assertEquals(expected.get(probe), actual.get(probe), "Lookup of " + probe);
+          assertEquals(
+              expected.get(probe).map(IpInformation::getCountryCodeAlpha2),
+              actual.getCountry(probe),
+              "Country lookup of " + probe);
+        }
+      }
+    }
+    assertEquals(
+        Optional.of("1.0.0.0/26,2065740,2077456,,0,0,5162,-35.1333,138.5167,500,"),
+        actual.get(new IP(InetAddresses.forString("1.0.0.1"))).get().getOriginalLine());
+  }
+
+  @Test
+  public void servesResolverAsProvider() throws IOException {
+    Path snapshot = folder.resolve("dbip.snapshot");
+    new DbIpLocationAndIspLineReader(
+            getPath("provider/dbip/tinyValid.csv"),
+            null,
+            MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)
+        .withSnapshot(snapshot)
+        .read(
+            false,
+            new LineReaderListener() {},
+            new LineProcessorListener() {},
+            new DatabaseBuilderListener() {},
+            4);
+
+    IPResolver resolver =
+        new IPResolver.Builder().withProvider(MappedSnapshotIpDatabase.open(snapshot)).build();
+    Optional<IpInformation> result = resolver.resolve("1.0.8.17", DbIpProviderKey.of());
+    assertTrue(result.isPresent());
+    assertEquals("CN", result.get().getCountryCodeAlpha2());
+    assertFalse(result.get().getOriginalLine().isPresent());
+    assertFalse(resolver.resolve("1.0.16.0", DbIpProviderKey.of()).isPresent());
+  }
+
+  @Test
+  public void rejectsOtherVersions() throws IOException {
+    Path snapshot = folder.resolve("dbip.snapshot");
+    new DbIpLocationAndIspLineReader(
+            getPath("provider/dbip/tinyValid.csv"),
+            null,
+            MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)
+        .withSnapshot(snapshot)
+        .read(
+            false,
+            new LineReaderListener() {},
+            new LineProcessorListener() {},
+            new DatabaseBuilderListener() {},
+            4);
+    byte[] bytes = Files.readAllBytes(snapshot);
+    ByteBuffer.wrap(bytes).putInt(4, SortedArraySnapshot.VERSION + 1);
+    Files.write(snapshot, bytes);
+
+    assertThrows(IllegalArgumentException.class, () -> MappedSnapshotIpDatabase.open(snapshot));
+  }
+
+  @Test
+  public void rejectsTruncatedSnapshot() throws IOException {
+    Path snapshot = folder.resolve("dbip.snapshot");
+    new DbIpLocationAndIspLineReader(
+            getPath("provider/dbip/tinyValid.csv"),
+            null,
+            MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)
+        .withSnapshot(snapshot)
+        .read(
+            false,
+            new LineReaderListener() {},
+            new LineProcessorListener() {},
+            new DatabaseBuilderListener() {},
+            4);
+    byte[] bytes = Files.readAllBytes(snapshot);
+    Files.write(snapshot, Arrays.copyOf(bytes, bytes.length - 3));
+
+    assertThrows(IllegalArgumentException.class, () -> MappedSnapshotIpDatabase.open(snapshot));
+  }
+
+  @Test
+  public void readsStoredJumpTableAndSlash64Flag() throws IOException {
+    Path snapshot = folder.resolve("dbip.snapshot");
+    SortedRangeIpDatabase expected =
+        (SortedRangeIpDatabase)
+            new DbIpLocationAndIspLineReader(
+                    getPath("provider/dbip/tinyValid.csv"),
+                    null,
+                    MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)
+                .withSnapshot(snapshot)
+                .read(
+                    false,
+                    new LineReaderListener() {},
+                    new LineProcessorListener() {},
+                    new DatabaseBuilderListener() {},
+                    4);
+
+    MappedSnapshotIpDatabase actual = MappedSnapshotIpDatabase.open(snapshot);
+    assertEquals(expected.ipV4JumpTable(), actual.ipV4JumpTable());
+    assertEquals(expected.coversWholeSlash64s(), actual.coversWholeSlash64s());
+  }
+
+  @Test
+  public void closeUnmapsSnapshot() throws IOException {
+    Path maps = Paths.get("/proc/self/maps");
+    assumeTrue(Files.isReadable(maps));
+    Path snapshot = folder.resolve("dbip.snapshot");
+    new DbIpLocationAndIspLineReader(
+            getPath("provider/dbip/tinyValid.csv"),
+            null,
+            MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)
+        .withSnapshot(snapshot)
+        .read(
+            false,
+            new LineReaderListener() {},
+            new LineProcessorListener() {},
+            new DatabaseBuilderListener() {},
+            4);
+    String path = snapshot.toRealPath().toString();
+
+    MappedSnapshotIpDatabase database = MappedSnapshotIpDatabase.open(snapshot);
+    assertTrue(Files.readAllLines(maps).stream().anyMatch(line -> line.endsWith(path)));
+    database.close();
+    assertFalse(Files.readAllLines(maps).stream().anyMatch(line -> line.endsWith(path)));
+  }
+
+  @Test
+  public void snapshotRequiresSortedArray() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            new DbIpLocationAndIspLineReader(
+                    getPath("provider/dbip/tinyValid.csv"),
+                    null,
+                    MapDbDatabaseBuilder.StorageMode.HEAP)
+                .withSnapshot(folder.resolve("dbip.snapshot")));
+  }
+
+  private Path getPath(String location) {
+    return Paths.get(
+        MappedSnapshotIpDatabaseTest.class.getClassLoader().getResource(location).getFile());
+  }
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.net.InetAddresses;
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.api.api.IpInformationField;
+import technology.dice.dicewhere.building.DatabaseBuilderListener;
+import technology.dice.dicewhere.building.LocationDictionary;
+import technology.dice.dicewhere.building.RangeIpDatabase;
+import technology.dice.dicewhere.building.navigablemap.MapDbDatabaseBuilder;
+import technology.dice.dicewhere.lineprocessing.LineProcessorListener;
+import technology.dice.dicewhere.provider.ProviderKey;
+import technology.dice.dicewhere.provider.dbip.reading.DbIpLocationAndIspLineReader;
+import technology.dice.dicewhere.provider.maxmind.reading.MaxmindDbReader;
+import technology.dice.dicewhere.reading.CSVLineReader;
+import technology.dice.dicewhere.reading.LineReaderListener;
+import technology.dice.dicewhere.utils.IPUtils;
+
+public class SortedArrayIpDatabaseTest {
+
+  @Test
+  public void sameResultsAsMapDbForDbIp() throws IOException {
+    Path csv = getPath("provider/dbip/tinyValid.csv");
+    List<IP> probes = new ArrayList<>();
+    for (String line : Files.readAllLines(csv)) {
+      String[] fields = line.split(",");
+      addProbes(
+          probes,
+          new IP(InetAddresses.forString(fields[0])),
+          new IP(InetAddresses.forString(fields[1])));
+    }
+
+    assertSameResults(
+        read(new DbIpLocationAndIspLineReader(csv, null, MapDbDatabaseBuilder.StorageMode.HEAP)),
+        read(
+            new DbIpLocationAndIspLineReader(
+                csv, null, MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)),
+        probes);
+  }
+
+  @Test
+  public void sameResultsAsMapDbForMaxmind() throws IOException {
+    Path locations = getPath("provider/maxmind/GeoLite2-City-Locations-en.csv.zip");
+    Path v4 = getPath("provider/maxmind/tinyValidV4.csv");
+    Path v6 = getPath("provider/maxmind/tinyValidV6.csv");
+    List<IP> probes = new ArrayList<>();
+    for (Path csv : new Path[] {v4, v6}) {
+      Files.lines(csv)
+          .skip(1)
+          .forEach(
+              line -> {
+                IPAddress network = new IPAddressString(line.split(",")[0]).getAddress();
+                addProbes(
+                    probes,
+                    new IP(network.getLower().getBytes()),
+                    new IP(network.toMaxHost().getBytes()));
+              });
+    }
+
+    RangeIpDatabase sortedArray =
+        read(
+            new MaxmindDbReader(
+                locations, v4, v6, null, MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY));
+    assertSameResults(
+        read(new MaxmindDbReader(locations, v4, v6, null, MapDbDatabaseBuilder.StorageMode.HEAP)),
+        sortedArray,
+        probes);
+    assertEquals(18, sortedArray.size());
+  }
+
+  @Test
+  public void retainedFieldsMergeRanges() throws IOException {
+    Path csv = getPath("provider/dbip/adjacentRanges.csv");
+    List<IP> probes = new ArrayList<>();
+    for (String line : Files.readAllLines(csv)) {
+      String[] fields = line.split(",");
+      addProbes(
+          probes,
+          new IP(InetAddresses.forString(fields[0])),
+          new IP(InetAddresses.forString(fields[1])));
+    }
+
+    RangeIpDatabase full =
+        read(
+            new DbIpLocationAndIspLineReader(
+                csv, null, MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY));
+    RangeIpDatabase countryOnly =
+        read(
+            new DbIpLocationAndIspLineReader(
+                    csv, null, MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)
+                .withRetainedFields(EnumSet.noneOf(IpInformationField.class)));
+    assertEquals(8, full.size());
+    // AU, CN up to 1.0.15.255, CN from 1.0.17.0 and JP
+    assertEquals(4, countryOnly.size());
+    for (IP probe : probes) {
+      Optional<IpInformation> result = countryOnly.get(probe);
+      assertEquals(full.getCountry(probe), countryOnly.getCountry(probe), "Lookup of " + probe);
+      assertFalse(result.flatMap(IpInformation::getCity).isPresent());
+    }
+    assertSameResults(
+        read(
+            new DbIpLocationAndIspLineReader(csv, null, MapDbDatabaseBuilder.StorageMode.HEAP)
+                .withRetainedFields(EnumSet.noneOf(IpInformationField.class))),
+        countryOnly,
+        probes);
+
+    RangeIpDatabase withCity =
+        read(
+            new DbIpLocationAndIspLineReader(
+                    csv, null, MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)
+                .withRetainedFields(EnumSet.of(IpInformationField.CITY)));
+    // the Guangzhou ranges up to 1.0.15.255 merge
+    assertEquals(7, withCity.size());
+    for (IP probe : probes) {
+      assertEquals(
+          full.get(probe).flatMap(IpInformation::getCity),
+          withCity.get(probe).flatMap(IpInformation::getCity),
+          "Lookup of " + probe);
+    }
+  }
+
+  @Test
+  public void coalescesAdjacentRanges() {
+    Path csv = getPath("provider/dbip/adjacentRanges.csv");
+    for (MapDbDatabaseBuilder.StorageMode mode :
+        new MapDbDatabaseBuilder.StorageMode[] {
+          MapDbDatabaseBuilder.StorageMode.HEAP, MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY
+        }) {
+      int[] merged = {-1};
+      RangeIpDatabase database =
+          new DbIpLocationAndIspLineReader(csv, null, mode)
+              .withRangeCoalescing(true)
+              .read(
+                  false,
+                  new LineReaderListener() {},
+                  new LineProcessorListener() {},
+                  new DatabaseBuilderListener() {
+                    @Override
+                    public void rangesMerged(ProviderKey provider, int count) {
+                      merged[0] = count;
+                    }
+                  },
+                  4);
+
+      assertEquals(1, merged[0], mode.name());
+      assertEquals(7, database.size(), mode.name());
+      IpInformation result = database.get(new IP(InetAddresses.forString("1.0.5.1"))).get();
+      assertEquals(new IP(InetAddresses.forString("1.0.4.0")), result.getStartOfRange());
+      assertEquals(new IP(InetAddresses.forString("1.0.15.255")), result.getEndOfRange());
+      assertEquals(Optional.of("Guangzhou"), result.getCity());
+      assertFalse(database.get(new IP(InetAddresses.forString("1.0.16.0"))).isPresent());
+    }
+  }
+
+  @Test
+  public void retainsOriginalLine() {
+    Path csv = getPath("provider/dbip/tinyValid.csv");
+    RangeIpDatabase database =
+        new DbIpLocationAndIspLineReader(csv, null, MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)
+            .read(
+                true,
+                new LineReaderListener() {},
+                new LineProcessorListener() {},
+                new DatabaseBuilderListener() {},
+                4);
+
+    Optional<IpInformation> result = database.get(new IP(InetAddresses.forString("1.0.8.17")));
+    assertTrue(result.isPresent());
+    assertEquals(
+        Optional.of("1.0.8.0,1.0.15.255,CN,Guangdong,,Guangzhou,,,,1809858,,,,,"),
+        result.get().getOriginalLine());
+    assertFalse(database.get(new IP(InetAddresses.forString("1.0.16.0"))).isPresent());
+  }
+
+  @Test
+  public void repeatedLookupsShareMaterialisedResult() {
+    RangeIpDatabase database =
+        read(
+            new DbIpLocationAndIspLineReader(
+                    getPath("provider/dbip/tinyValid.csv"),
+                    null,
+                    MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)
+                .withMaterialisedCacheSize(1024));
+
+    Optional<IpInformation> first = database.get(new IP(InetAddresses.forString("1.0.8.17")));
+    assertTrue(first.isPresent());
+    assertSame(first, database.get(new IP(InetAddresses.forString("1.0.15.1"))));
+  }
+
+  @Test
+  public void materialisedCacheDisabled() {
+    RangeIpDatabase database =
+        read(
+            new DbIpLocationAndIspLineReader(
+                    getPath("provider/dbip/tinyValid.csv"),
+                    null,
+                    MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)
+                .withMaterialisedCacheSize(0));
+
+    Optional<IpInformation> first = database.get(new IP(InetAddresses.forString("1.0.8.17")));
+    Optional<IpInformation> second = database.get(new IP(InetAddresses.forString("1.0.15.1")));
+    assertNotSame(first, second);
+    assertEquals(first, second);
+  }
+
+  @Test
+  public void jumpTableSameResultsAsFullSearch() {
+    SortedArrayIpDatabase jumping = SyntheticDatabases.ipV4Ranges(new Random(7), 50_000, 0);
+    SortedArrayIpDatabase searching =
+        SyntheticDatabases.ipV4Ranges(new Random(7), 50_000, 0, false);
+
+    List<IP> probes = new ArrayList<>();
+    for (int i = 0; i < jumping.ipV4Count(); i += 7) {
+      addProbes(probes, IP.fromIpV4(jumping.ipV4Starts[i]), IP.fromIpV4(jumping.ipV4End(i)));
+    }
+    Random random = new Random(42);
+    for (int i = 0; i < 10_000; i++) {
+      probes.add(IP.fromIpV4(random.nextInt()));
+      probes.add(IP.fromIpV4(random.nextInt() & 0xFFFF0000));
+      probes.add(IP.fromIpV4(random.nextInt() | 0x0000FFFF));
+    }
+    probes.add(IP.fromIpV4(0));
+    probes.add(IP.fromIpV4(-1));
+    assertSameResults(searching, jumping, probes);
+  }
+
+  @Test
+  public void eytzingerSameResultsAsSorted() {
+    SortedArrayIpDatabase eytzinger = SyntheticDatabases.ipV4Ranges(new Random(7), 50_000, 0);
+    eytzinger.useSearchLayout(SearchLayout.EYTZINGER);
+    SortedArrayIpDatabase sorted = SyntheticDatabases.ipV4Ranges(new Random(7), 50_000, 0);
+
+    List<IP> probes = new ArrayList<>();
+    for (int i = 0; i < sorted.ipV4Count(); i += 7) {
+      addProbes(probes, IP.fromIpV4(sorted.ipV4Starts[i]), IP.fromIpV4(sorted.ipV4End(i)));
+    }
+    Random random = new Random(42);
+    for (int i = 0; i < 10_000; i++) {
+      probes.add(IP.fromIpV4(random.nextInt()));
+    }
+    probes.add(IP.fromIpV4(0));
+    probes.add(IP.fromIpV4(-1));
+    assertSameResults(sorted, eytzinger, probes);
+  }
+
+  @Test
+  public void eytzingerSameResultsAsMapDb() throws IOException {
+    Path locations = getPath("provider/maxmind/GeoLite2-City-Locations-en.csv.zip");
+    Path v4 = getPath("provider/maxmind/tinyValidV4.csv");
+    Path v6 = getPath("provider/maxmind/tinyValidV6.csv");
+    List<IP> probes = new ArrayList<>();
+    for (Path csv : new Path[] {v4, v6}) {
+      List<String> lines = Files.readAllLines(csv);
+      for (String line : lines.subList(1, lines.size())) {
+        IPAddress network = new IPAddressString(line.split(",")[0]).getAddress();
+        addProbes(
+            probes, new IP(network.getLower().getBytes()), new IP(network.toMaxHost().getBytes()));
+      }
+    }
+    probes.add(new IP(InetAddresses.forString("::")));
+    probes.add(new IP(InetAddresses.forString("ffff:ffff:ffff:ffff:ffff:ffff:ffff:fffe")));
+
+    assertSameResults(
+        read(new MaxmindDbReader(locations, v4, v6, null, MapDbDatabaseBuilder.StorageMode.HEAP)),
+        read(
+            new MaxmindDbReader(
+                    locations, v4, v6, null, MapDbDatabaseBuilder.StorageMode.SORTED_ARRAY)
+                .withSearchLayout(SearchLayout.EYTZINGER)),
+        probes);
+  }
+
+  @Test
+  public void implicitEnds() {
+    LocationDictionary dictionary = new LocationDictionary();
+    dictionary.locationId(
+        IpInformation.builder()
+            .withCountryCodeAlpha2("PT")
+            .withStartOfRange(IP.fromIpV4(0))
+            .withEndOfRange(IP.fromIpV4(0))
+            .build());
+    SortedArrayIpDatabase database =
+        new SortedArrayIpDatabase(
+            new int[] {0, 10, 30, 0xFFFFFF00},
+            new int[] {9, 19, 0xFFFFFEFF, -1},
+            new long[] {0, 5, 6, 7},
+            new long[] {0, -1, 0, 1},
+            new long[] {5, 5, 6, 8},
+            new long[] {-2, -1, -1, 0},
+            new int[] {0, 0, 0, 0, 0, 0, 0, 0},
+            dictionary.locations().toArray(new byte[0][]),
+            null,
+            0,
+            SearchLayout.SORTED);
+
+    assertEquals(3, database.gapCount());
+    assertFalse(database.coversWholeSlash64s());
+    assertEquals(9, database.ipV4End(0));
+    assertEquals(19, database.ipV4End(1));
+    assertEquals(0xFFFFFEFF, database.ipV4End(2));
+    assertEquals(-1, database.ipV4End(3));
+    assertFalse(database.get(IP.fromIpV4(25)).isPresent());
+    assertTrue(database.get(IP.fromIpV4(-1)).isPresent());
+
+    assertEquals(5, database.ipV6EndHigh(0));
+    assertEquals(-2, database.ipV6EndLow(0));
+    assertEquals(5, database.ipV6EndHigh(1));
+    assertEquals(-1, database.ipV6EndLow(1));
+    assertEquals(6, database.ipV6EndHigh(2));
+    assertEquals(-1, database.ipV6EndLow(2));
+    assertEquals(8, database.ipV6EndHigh(3));
+    assertEquals(0, database.ipV6EndLow(3));
+    assertFalse(database.get(IP.fromIpV6(7, 0)).isPresent());
+    assertFalse(database.get(IP.fromIpV6(8, 1)).isPresent());
+    assertTrue(database.get(IP.fromIpV6(8, 0)).isPresent());
+  }
+
+  @Test
+  public void slash64KeysSameResultsAsFullKeys() {
+    SortedArrayIpDatabase slash64 = SyntheticDatabases.ipV6Ranges(new Random(7), 50_000, 0);
+    BlockCompressedIpDatabase fullKeys = BlockCompressedIpDatabase.of(slash64, 0);
+    assertTrue(slash64.coversWholeSlash64s());
+
+    List<IP> probes = new ArrayList<>();
+    Random random = new Random(42);
+    for (int i = 0; i < slash64.ipV6Count(); i += 7) {
+      long startHigh = slash64.ipV6StartHigh(i);
+      long endHigh = slash64.ipV6EndHigh(i);
+      addProbes(probes, IP.fromIpV6(startHigh, 0), IP.fromIpV6(endHigh, -1));
+      probes.add(IP.fromIpV6(startHigh, random.nextLong()));
+      probes.add(IP.fromIpV6(endHigh, random.nextLong()));
+      probes.add(IP.fromIpV6(endHigh + 1, random.nextLong()));
+    }
+    assertSameResults(fullKeys, slash64, probes);
+  }
+
+  @Test
+  public void blockCompressedSameResultsAsSorted() {
+    for (boolean ipV6 : new boolean[] {false, true}) {
+      SortedArrayIpDatabase sorted =
+          ipV6
+              ? SyntheticDatabases.ipV6Ranges(new Random(7), 50_000, 0)
+              : SyntheticDatabases.ipV4Ranges(new Random(7), 50_000, 0);
+      BlockCompressedIpDatabase compressed = BlockCompressedIpDatabase.of(sorted, 0);
+
+      List<IP> probes = new ArrayList<>();
+      Random random = new Random(42);
+      for (int i = 0; i < sorted.ipV4Count() + sorted.ipV6Count(); i += 7) {
+        if (ipV6) {
+          addProbes(
+              probes,
+              IP.fromIpV6(sorted.ipV6StartsHigh[i], sorted.ipV6StartLow(i)),
+              IP.fromIpV6(sorted.ipV6EndHigh(i), sorted.ipV6EndLow(i)));
+          probes.add(IP.fromIpV6(random.nextLong(), random.nextLong()));
+        } else {
+          addProbes(probes, IP.fromIpV4(sorted.ipV4Starts[i]), IP.fromIpV4(sorted.ipV4End(i)));
+          probes.add(IP.fromIpV4(random.nextInt()));
+        }
+      }
+      probes.add(ipV6 ? IP.fromIpV6(0, 0) : IP.fromIpV4(0));
+      probes.add(ipV6 ? IP.fromIpV6(-1, -2) : IP.fromIpV4(-1));
+      assertSameResults(sorted, compressed, probes);
+    }
+  }
+
+  @Test
+  public void blockCompressedIsSmallerThanSorted() {
+    SortedArrayIpDatabase sorted = SyntheticDatabases.ipV4Ranges(new Random(7), 50_000, 0);
+    BlockCompressedIpDatabase compressed = BlockCompressedIpDatabase.of(sorted, 0);
+
+    // random ranges are far sparser than real ones, which compress further still
+    assertTrue(compressed.encodedSize() < 9L * sorted.size());
+    assertEquals(sorted.ipV4Start(123), compressed.ipV4Start(123));
+    assertEquals(sorted.ipV4End(sorted.ipV4Count() - 1), compressed.ipV4End(sorted.ipV4Count() - 1));
+  }
+
+  @Test
+  public void blockCompressedSameResultsAsMapDb() throws IOException {
+    Path locations = getPath("provider/maxmind/GeoLite2-City-Locations-en.csv.zip");
+    Path v4 = getPath("provider/maxmind/tinyValidV4.csv");
+    Path v6 = getPath("provider/maxmind/tinyValidV6.csv");
+    List<IP> probes = new ArrayList<>();
+    for (Path csv : new Path[] {v4, v6}) {
+      List<String> lines = Files.readAllLines(csv);
+      for (String line : lines.subList(1, lines.size())) {
+        IPAddress network = new IPAddressString(line.split(",")[0]).getAddress();
+        addProbes(
+            probes, new IP(network.getLower().getBytes()), new IP(network.toMaxHost().getBytes()));
+      }
+    }
+
+    RangeIpDatabase compressed =
+        read(
+            new MaxmindDbReader(
+                locations, v4, v6, null, MapDbDatabaseBuilder.StorageMode.BLOCK_COMPRESSED));
+    assertTrue(compressed instanceof BlockCompressedIpDatabase);
+    assertSameResults(
+        read(new MaxmindDbReader(locations, v4, v6, null, MapDbDatabaseBuilder.StorageMode.HEAP)),
+        compressed,
+        probes);
+  }
+
+  private void assertSameResults(
+      RangeIpDatabase expected, RangeIpDatabase actual, List<IP> probes) {
+    assertEquals(expected.size(), actual.size());
+    for (IP probe : probes) {
+      assertEquals(expected.get(probe), actual.get(probe), "Lookup of " + probe);
+      assertEquals(
+          expected.get(probe).map(IpInformation::getCountryCodeAlpha2),
+          actual.getCountry(probe),
+          "Country lookup of " + probe);
+    }
+
+    List<IP> batch = new ArrayList<>(probes);
+    Collections.shuffle(batch, new Random(42));
+    List<Optional<IpInformation>> batchResults = actual.getAll(batch);
+    assertEquals(expected.getAll(batch), batchResults);
+    for (int i = 0; i < batch.size(); i++) {
+      assertEquals(expected.get(batch.get(i)), batchResults.get(i), "Lookup of " + batch.get(i));
+    }
+  }
+
+  private void addProbes(List<IP> probes, IP start, IP end) {
+    try {
+      probes.add(start);
+      probes.add(end);
+      probes.add(IPUtils.increment(end));
+      if (!start.equals(new IP(new byte[start.getLength()]))) {
+        probes.add(IPUtils.decrement(start));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private RangeIpDatabase read(CSVLineReader reader) {
+    return reader.read(
+        false,
+        new LineReaderListener() {},
+        new LineProcessorListener() {},
+        new DatabaseBuilderListener() {},
+        4);
+  }
+
+  private Path getPath(String location) {
+    return Paths.get(
+        SortedArrayIpDatabaseTest.class.getClassLoader().getResource(location).getFile());
+  }
+}
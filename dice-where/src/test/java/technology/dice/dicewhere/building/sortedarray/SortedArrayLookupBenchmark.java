@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import technology.dice.dicewhere.api.api.IP;
+
+/**
+ * Lookups over a synthetic database the size of a full city level one. Every result is kept
+ * materialised, so that the benchmark measures the search rather than building results
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SortedArrayLookupBenchmark {
+  private static final int RANGES = 4_000_000;
+  private static final int LOOKUPS = 10_000;
+
+  @Param({"IPV4", "IPV6"})
+  private String family;
+
+  /**
+   * RANDOM spreads lookups over the whole address space, SKEWED over a few hundred /24s (IPV4) or
+   * /64s (IPV6)
+   */
+  @Param({"RANDOM", "SKEWED"})
+  private String workload;
+
+  /**
+   * SORTED_WITHOUT_JUMP_TABLE searches the whole sorted array, BLOCK_COMPRESSED searches a {@link
+   * BlockCompressedIpDatabase}
+   */
+  @Param({"SORTED", "SORTED_WITHOUT_JUMP_TABLE", "EYTZINGER", "BLOCK_COMPRESSED"})
+  private String layout;
+
+  private SortedRangeIpDatabase database;
+  private IP[] ips;
+
+  public static void main(String[] args) throws RunnerException {
+    Options opt =
+        new OptionsBuilder().include(SortedArrayLookupBenchmark.class.getSimpleName()).build();
+    new Runner(opt).run();
+  }
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    boolean ipV6 = "IPV6".equals(family);
+    boolean jumpTable = !"SORTED_WITHOUT_JUMP_TABLE".equals(layout);
+    SortedArrayIpDatabase sorted =
+        ipV6
+            ? SyntheticDatabases.ipV6Ranges(random, RANGES, RANGES)
+            : SyntheticDatabases.ipV4Ranges(random, RANGES, RANGES, jumpTable);
+    if ("EYTZINGER".equals(layout)) {
+      sorted.useSearchLayout(SearchLayout.EYTZINGER);
+    }
+    database =
+        "BLOCK_COMPRESSED".equals(layout) ? BlockCompressedIpDatabase.of(sorted, RANGES) : sorted;
+    long[] networks = new long[256];
+    for (int i = 0; i < networks.length; i++) {
+      networks[i] = ipV6 ? random.nextLong() : random.nextInt() & 0xFFFFFF00;
+    }
+    ips = new IP[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; i++) {
+      long network = networks[random.nextInt(networks.length)];
+      boolean skewed = "SKEWED".equals(workload);
+      if (ipV6) {
+        ips[i] = IP.fromIpV6(skewed ? network : random.nextLong(), random.nextLong());
+      } else {
+        ips[i] = IP.fromIpV4(skewed ? (int) network | random.nextInt(256) : random.nextInt());
+      }
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @Warmup(iterations = 5)
+  @Measurement(iterations = 5)
+  public void lookups(Blackhole blackhole) {
+    for (IP ip : ips) {
+      blackhole.consume(database.get(ip));
+    }
+  }
+}
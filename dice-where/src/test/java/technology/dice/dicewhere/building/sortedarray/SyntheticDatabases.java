@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.building.sortedarray;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import technology.dice.dicewhere.api.api.IP;
+import technology.dice.dicewhere.api.api.IpInformation;
+import technology.dice.dicewhere.building.LocationDictionary;
+
+/** Builds sorted array databases of random ranges, for tests and benchmarks */
+final class SyntheticDatabases {
+  private static final String[] COUNTRIES = {"PT", "ES", "GB", "US", "CN"};
+
+  private SyntheticDatabases() {}
+
+  /**
+   * @param random the source of the ranges
+   * @param count how many ranges to generate, at most
+   * @param materialisedCacheSize how many lookup results to keep materialised
+   * @return a database of disjoint IPV6 ranges made of whole /64s, with gaps between some of them
+   */
+  static SortedArrayIpDatabase ipV6Ranges(Random random, int count, int materialisedCacheSize) {
+    long[] sorted = new long[2 * count];
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = random.nextLong() ^ Long.MIN_VALUE;
+    }
+    Arrays.sort(sorted);
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] ^= Long.MIN_VALUE;
+    }
+    long[] startsHigh = new long[count];
+    long[] endsHigh = new long[count];
+    int ranges = 0;
+    for (int i = 0; i + 1 < sorted.length; i += 2) {
+      if (ranges > 0 && Long.compareUnsigned(sorted[i], endsHigh[ranges - 1]) <= 0) {
+        continue;
+      }
+      startsHigh[ranges] = sorted[i];
+      endsHigh[ranges] =
+          random.nextBoolean()
+                  && i + 2 < sorted.length
+                  && Long.compareUnsigned(sorted[i + 1], sorted[i + 2] - 1) < 0
+              ? sorted[i + 2] - 1
+              : sorted[i + 1];
+      ranges++;
+    }
+    long[] startsLow = new long[ranges];
+    long[] endsLow = new long[ranges];
+    Arrays.fill(endsLow, -1);
+
+    LocationDictionary dictionary = new LocationDictionary();
+    int[] locationIds = new int[ranges];
+    for (int i = 0; i < ranges; i++) {
+      locationIds[i] =
+          dictionary.locationId(
+              IpInformation.builder()
+                  .withCountryCodeAlpha2(COUNTRIES[random.nextInt(COUNTRIES.length)])
+                  .withStartOfRange(IP.fromIpV6(startsHigh[i], 0))
+                  .withEndOfRange(IP.fromIpV6(endsHigh[i], -1))
+                  .build());
+    }
+    return new SortedArrayIpDatabase(
+        new int[0],
+        new int[0],
+        Arrays.copyOf(startsHigh, ranges),
+        startsLow,
+        Arrays.copyOf(endsHigh, ranges),
+        endsLow,
+        locationIds,
+        dictionary.locations().toArray(new byte[0][]),
+        null,
+        materialisedCacheSize,
+        SearchLayout.SORTED);
+  }
+
+  /**
+   * @param random the source of the ranges
+   * @param count how many ranges to generate, at most
+   * @param materialisedCacheSize how many lookup results to keep materialised
+   * @return a database of disjoint IPV4 ranges, with gaps between some of them
+   */
+  static SortedArrayIpDatabase ipV4Ranges(Random random, int count, int materialisedCacheSize) {
+    return ipV4Ranges(random, count, materialisedCacheSize, true);
+  }
+
+  /**
+   * @param random the source of the ranges
+   * @param count how many ranges to generate, at most
+   * @param materialisedCacheSize how many lookup results to keep materialised
+   * @param jumpTable whether to search through the IPV4 jump table, or all the ranges
+   * @return a database of disjoint IPV4 ranges, with gaps between some of them
+   */
+  static SortedArrayIpDatabase ipV4Ranges(
+      Random random, int count, int materialisedCacheSize, boolean jumpTable) {
+    int[] bounds = new int[2 * count];
+    for (int i = 0; i < bounds.length; i++) {
+      bounds[i] = random.nextInt();
+    }
+    long[] sorted = Arrays.stream(bounds).mapToLong(Integer::toUnsignedLong).sorted().toArray();
+    int[] starts = new int[count];
+    int[] ends = new int[count];
+    int ranges = 0;
+    for (int i = 0; i + 1 < sorted.length; i += 2) {
+      if (ranges > 0 && sorted[i] <= Integer.toUnsignedLong(ends[ranges - 1])) {
+        continue;
+      }
+      starts[ranges] = (int) sorted[i];
+      // half of the ranges run up to the next one, the other half leave a gap
+      ends[ranges] =
+          (int)
+              (random.nextBoolean() && i + 2 < sorted.length
+                  ? Math.max(sorted[i + 1], sorted[i + 2] - 1)
+                  : sorted[i + 1]);
+      ranges++;
+    }
+
+    LocationDictionary dictionary = new LocationDictionary();
+    int[] locationIds = new int[ranges];
+    for (int i = 0; i < ranges; i++) {
+      locationIds[i] =
+          dictionary.locationId(
+              IpInformation.builder()
+                  .withCountryCodeAlpha2(COUNTRIES[random.nextInt(COUNTRIES.length)])
+                  .withStartOfRange(IP.fromIpV4(starts[i]))
+                  .withEndOfRange(IP.fromIpV4(ends[i]))
+                  .build());
+    }
+    return new SortedArrayIpDatabase(
+        Arrays.copyOf(starts, ranges),
+        Arrays.copyOf(ends, ranges),
+        new long[0],
+        new long[0],
+        new long[0],
+        new long[0],
+        locationIds,
+        dictionary.locations().toArray(new byte[0][]),
+        null,
+        materialisedCacheSize,
+        SearchLayout.SORTED) {
+      @Override
+      IntBuffer ipV4JumpTable() {
+        return jumpTable ? super.ipV4JumpTable() : null;
+      }
+    };
+  }
+}
@@ -8,14 +8,18 @@ package technology.dice.dicewhere.parsing.provider.dbip;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import com.google.common.net.InetAddresses;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
+import technology.dice.dicewhere.api.api.IP;
 import technology.dice.dicewhere.building.DatabaseBuilderListener;
-import technology.dice.dicewhere.building.navigablemap.NavigableMapIpDatabase;
+import technology.dice.dicewhere.building.RangeIpDatabase;
 import technology.dice.dicewhere.lineprocessing.LineProcessorListener;
+import technology.dice.dicewhere.lineprocessing.SerializedLine;
 import technology.dice.dicewhere.provider.dbip.DbIpProviderKey;
 import technology.dice.dicewhere.provider.dbip.reading.DbIpLineReader;
 import technology.dice.dicewhere.provider.dbip.reading.DbIpLocationAndIspLineReader;
@@ -34,7 +38,7 @@ public class DbIpLineReaderTest {
     LineProcessorListener processorListener = Mockito.mock(LineProcessorListener.class);
     DatabaseBuilderListener builderListener = Mockito.mock(DatabaseBuilderListener.class);
     DbIpLineReader dbIpReader = new DbIpLocationAndIspLineReader(path);
-    NavigableMapIpDatabase database =
+    RangeIpDatabase database =
         dbIpReader.read(false, readerListener, processorListener, builderListener, 4);
     long dbSize = database.size();
     assertEquals(22, dbSize);
@@ -78,7 +82,7 @@ public class DbIpLineReaderTest {
     LineProcessorListener processorListener = Mockito.mock(LineProcessorListener.class);
     DatabaseBuilderListener builderListener = Mockito.mock(DatabaseBuilderListener.class);
     DbIpLineReader dbIpReader = new DbIpLocationAndIspLineReader(path);
-    NavigableMapIpDatabase database =
+    RangeIpDatabase database =
         dbIpReader.read(false, readerListener, processorListener, builderListener, 4);
     long dbSize = database.size();
     assertEquals(16, dbSize);
@@ -122,7 +126,7 @@ public class DbIpLineReaderTest {
     LineProcessorListener processorListener = Mockito.mock(LineProcessorListener.class);
     DatabaseBuilderListener builderListener = Mockito.mock(DatabaseBuilderListener.class);
     DbIpLineReader dbIpReader = new DbIpLocationAndIspLineReader(path);
-    NavigableMapIpDatabase database =
+    RangeIpDatabase database =
         dbIpReader.read(false, readerListener, processorListener, builderListener, 4);
     long dbSize = database.size();
     assertEquals(3, dbSize);
@@ -153,4 +157,40 @@ public class DbIpLineReaderTest {
     Mockito.verify(builderListener, Mockito.times((int) dbSize))
         .lineAdded(Mockito.eq(DbIpProviderKey.of()), Mockito.any());
   }
+
+  @Test
+  public void outOfOrderAfterMergedRanges() {
+    Path path =
+        Paths.get(
+            DbIpLineReaderTest.class
+                .getClassLoader()
+                .getResource("provider/dbip/mergeableNotSorted.csv")
+                .getFile());
+    DatabaseBuilderListener builderListener = Mockito.mock(DatabaseBuilderListener.class);
+    DbIpLineReader dbIpReader = new DbIpLocationAndIspLineReader(path);
+    RangeIpDatabase database =
+        dbIpReader
+            .withRangeCoalescing(true)
+            .read(
+                false,
+                Mockito.mock(LineReaderListener.class),
+                Mockito.mock(LineProcessorListener.class),
+                builderListener,
+                4);
+    assertEquals(2, database.size());
+    Mockito.verify(builderListener, Mockito.times(1))
+        .lineOutOfOrder(
+            Mockito.eq(DbIpProviderKey.of()), Mockito.argThat(startsAt("1.0.2.0")), Mockito.any());
+    Mockito.verify(builderListener, Mockito.never())
+        .lineAdded(Mockito.any(), Mockito.argThat(startsAt("1.0.2.0")));
+    Mockito.verify(builderListener, Mockito.times(3))
+        .lineAdded(Mockito.eq(DbIpProviderKey.of()), Mockito.any());
+    Mockito.verify(builderListener, Mockito.times(1))
+        .rangesMerged(Mockito.eq(DbIpProviderKey.of()), Mockito.eq(1));
+  }
+
+  private static ArgumentMatcher<SerializedLine> startsAt(String ip) {
+    IP start = new IP(InetAddresses.forString(ip));
+    return line -> line != null && start.equals(line.getStartIp());
+  }
 }
@@ -19,7 +19,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import org.junit.jupiter.api.Test;
 import technology.dice.dicewhere.building.DatabaseBuilderListener;
-import technology.dice.dicewhere.building.navigablemap.NavigableMapIpDatabase;
+import technology.dice.dicewhere.building.RangeIpDatabase;
 import technology.dice.dicewhere.lineprocessing.LineProcessorListener;
 import technology.dice.dicewhere.provider.maxmind.MaxmindProviderKey;
 import technology.dice.dicewhere.provider.maxmind.reading.MaxmindDbReader;
@@ -37,7 +37,7 @@ public class MaxmindLineReaderTest {
     Path locationNames = getPath("provider/maxmind/GeoLite2-City-Locations-en.csv.zip");
     MaxmindDbReader dbIpReader = new MaxmindDbReader(locationNames, v4, v6);
 
-    NavigableMapIpDatabase database =
+    RangeIpDatabase database =
         dbIpReader.read(false, readerListener, processorListener, builderListener, 4);
     long dbSize = database.size();
 
@@ -58,7 +58,7 @@ public class MaxmindLineReaderTest {
     Path locationNames = getPath("provider/maxmind/GeoLite2-City-Locations-en.csv.zip");
     MaxmindDbReader dbIpReader = new MaxmindDbReader(locationNames, v4, v6);
 
-    NavigableMapIpDatabase database =
+    RangeIpDatabase database =
         dbIpReader.read(false, readerListener, processorListener, builderListener, 4);
     long dbSize = database.size();
 
@@ -78,7 +78,7 @@ public class MaxmindLineReaderTest {
     Path locationNames = getPath("provider/maxmind/GeoLite2-City-Locations-en.csv.zip");
     MaxmindDbReader dbIpReader = new MaxmindDbReader(locationNames, v4, v6);
 
-    NavigableMapIpDatabase database =
+    RangeIpDatabase database =
         dbIpReader.read(false, readerListener, processorListener, builderListener, 4);
     long dbSize = database.size();
 
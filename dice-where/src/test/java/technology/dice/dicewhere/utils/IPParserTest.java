@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class IPParserTest {
+
+  @Test
+  public void sameAsInetAddressForLiterals() throws UnknownHostException {
+    for (String literal :
+        new String[] {
+          "0.0.0.0",
+          "1.0.8.17",
+          "255.255.255.255",
+          "010.001.000.009",
+          "::",
+          "::1",
+          "1::",
+          "2001:db8::8:800:200c:417a",
+          "2001:DB8:0:0:8:800:200C:417A",
+          "2001:200:2:ffff:ffff:ffff:ffff:0000",
+          "1:2:3:4:5:6:7:8",
+          "1::8",
+          "1:2:3:4:5:6::8",
+          "::ffff:1.0.8.17",
+          "0:0:0:0:0:ffff:100:a",
+          "::1.2.3.4",
+          "64:ff9b::192.0.2.33",
+          "[2001:db8::1]",
+          "[::ffff:10.0.0.1]"
+        }) {
+      byte[] expected = InetAddress.getByName(literal).getAddress();
+      assertArrayEquals(expected, IPParser.parse(literal).getBytes(), literal);
+    }
+  }
+
+  @Test
+  public void rejectsNonLiterals() {
+    for (String input :
+        new String[] {
+          "",
+          "localhost",
+          "example.com",
+          "1.2.3",
+          "1.2.3.4.5",
+          "256.0.0.1",
+          "1.2.3.4 ",
+          " 1.2.3.4",
+          "1..2.3",
+          "1.2.3.0001",
+          "[1.2.3.4]",
+          ":",
+          ":1",
+          "1:",
+          ":::",
+          "1::2::3",
+          "1:::2",
+          "12345::",
+          "1:2:3:4:5:6:7:8:9",
+          "1:2:3:4:5:6:7::8",
+          "1:2:3:4:5:6:7:1.2.3.4",
+          "::1.2.3",
+          "fe80::1%eth0",
+          "[::1",
+          "g::1",
+          "١.2.3.4"
+        }) {
+      assertThrows(UnknownHostException.class, () -> IPParser.parse(input), input);
+    }
+  }
+
+  @Test
+  public void reusesBuffer() throws UnknownHostException {
+    byte[] buffer = new byte[16];
+    assertEquals(16, IPParser.parse("2001:db8::1", buffer));
+    assertArrayEquals(InetAddress.getByName("2001:db8::1").getAddress(), buffer);
+
+    assertEquals(4, IPParser.parse("::ffff:1.0.8.17", buffer));
+    assertArrayEquals(new byte[] {1, 0, 8, 17}, Arrays.copyOf(buffer, 4));
+  }
+
+  @Test
+  public void bufferTooSmall() {
+    assertThrows(IllegalArgumentException.class, () -> IPParser.parse("1.1.1.1", new byte[4]));
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2018 - present by Dice Technology Ltd.
+ *
+ * Please see distribution for license.
+ */
+
+package technology.dice.dicewhere.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.common.net.InetAddresses;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import technology.dice.dicewhere.api.api.IP;
+
+public class IPUtilsTest {
+
+  @Test
+  public void embeddedIpV4() {
+    Optional<IP> expected = Optional.of(new IP(InetAddresses.forString("1.0.8.17")));
+    assertEquals(expected, IPUtils.embeddedIpV4(IP.fromIpV6(0, 0xFFFF_0100_0811L)));
+    assertEquals(expected, IPUtils.embeddedIpV4(IP.fromIpV6(0, 0x0100_0811L)));
+    assertEquals(expected, IPUtils.embeddedIpV4(IP.fromIpV6(0x2002_0100_0811_ABCDL, 42)));
+  }
+
+  @Test
+  public void noEmbeddedIpV4() {
+    for (String literal :
+        new String[] {"1.0.8.17", "::", "::1", "2001:db8::1", "64:ff9b::100:811", "::1:ffff:0:0"}) {
+      assertEquals(
+          Optional.empty(),
+          IPUtils.embeddedIpV4(new IP(InetAddresses.forString(literal))),
+          literal);
+    }
+  }
+}